@@ -0,0 +1,43 @@
+package com.johannpando.springboot.webflux.app.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+
+import reactor.core.publisher.Mono;
+
+// Read-through cache in front of a reactive DAO.
+// The entries are copied on the way in and on the way out, because the callers modify the documents they receive
+public class ReactiveCache<V> {
+
+	private final AsyncCache<String, V> cache;
+	
+	private final UnaryOperator<V> copier;
+	
+	public ReactiveCache(AsyncCache<String, V> cache, UnaryOperator<V> copier) {
+		this.cache = cache;
+		this.copier = copier;
+	}
+	
+	public Mono<V> get(String key, Function<String, Mono<V>> loader) {
+		// Concurrent misses of the same key share the same future, so only one query reaches Mongo.
+		// An empty Mono completes the future with null and Caffeine does not keep the entry.
+		// The cancellation of one subscriber must not cancel the load shared with the others
+		return Mono.fromFuture(() -> cache.get(key, (k, executor) -> loader.apply(k).toFuture()), true)
+				.map(copier);
+	}
+	
+	public void put(String key, V value) {
+		cache.put(key, CompletableFuture.completedFuture(copier.apply(value)));
+	}
+	
+	public void invalidate(String key) {
+		cache.synchronous().invalidate(key);
+	}
+	
+	public void invalidateAll() {
+		cache.synchronous().invalidateAll();
+	}
+}
@@ -0,0 +1,163 @@
+package com.johannpando.springboot.webflux.app.codec;
+
+import java.util.Arrays;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Decodes a Base64 body chunk by chunk, each chunk of the request becomes a chunk of the image:
+// the whole image is never in memory, and the output buffers come from the factory of the input ones
+// (the pooled Netty allocator of the server)
+public final class Base64DataBufferDecoder {
+
+	private static final byte INVALID = -1;
+	private static final byte WHITESPACE = -2;
+	private static final byte PADDING = -3;
+	
+	// Value of each Base64 character, the standard and the URL-safe alphabets are both accepted
+	private static final byte[] VALUES = new byte[256];
+	
+	static {
+		Arrays.fill(VALUES, INVALID);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			VALUES[alphabet.charAt(i)] = (byte) i;
+		}
+		VALUES['-'] = 62;
+		VALUES['_'] = 63;
+		VALUES['='] = PADDING;
+		VALUES[' '] = WHITESPACE;
+		VALUES['\t'] = WHITESPACE;
+		VALUES['\r'] = WHITESPACE;
+		VALUES['\n'] = WHITESPACE;
+	}
+	
+	private Base64DataBufferDecoder() {
+	}
+	
+	// Bytes of the image of a Base64 payload of this length, without counting padding and line breaks
+	public static long decodedLength(long encodedLength) {
+		return encodedLength / 4 * 3 + (encodedLength % 4) * 3 / 4;
+	}
+	
+	// The input buffers are released as soon as they are decoded, the error is raised as soon as the image
+	// goes over maxSize, without reading the rest of the body
+	public static Flux<DataBuffer> decode(Flux<DataBuffer> base64, long maxSize) {
+		return Flux.defer(() -> {
+			State state = new State(maxSize);
+			return base64
+				.concatMap(buffer -> {
+					try {
+						return emit(state.decode(buffer));
+					} finally {
+						DataBufferUtils.release(buffer);
+					}
+				})
+				// The chunks received but not decoded yet when the upload fails
+				.doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+				.concatWith(Mono.defer(() -> emit(state.finish())));
+		});
+	}
+	
+	private static Mono<DataBuffer> emit(DataBuffer decoded) {
+		if (decoded.readableByteCount() == 0) {
+			DataBufferUtils.release(decoded);
+			return Mono.empty();
+		}
+		return Mono.just(decoded);
+	}
+	
+	// Characters of the last incomplete quartet, carried to the next chunk
+	private static final class State {
+		
+		private final long maxSize;
+		
+		private long decodedSize;
+		
+		// Up to 4 characters of 6 bits
+		private int bits;
+		
+		private int count;
+		
+		// After the first '=' only padding and whitespace are allowed
+		private boolean padded;
+		
+		// The factory of the request, the decoded buffers are allocated like the received ones
+		private DataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+		
+		State(long maxSize) {
+			this.maxSize = maxSize;
+		}
+		
+		DataBuffer decode(DataBuffer chunk) {
+			int length = chunk.readableByteCount();
+			factory = chunk.factory();
+			DataBuffer decoded = factory.allocateBuffer((length + count) / 4 * 3);
+			try {
+				int read = chunk.readPosition();
+				for (int i = 0; i < length; i++) {
+					byte value = VALUES[chunk.getByte(read + i) & 0xFF];
+					if (value >= 0) {
+						if (padded) {
+							throw new IllegalArgumentException("The image is not valid Base64: data after the padding");
+						}
+						bits = (bits << 6) | value;
+						if (++count == 4) {
+							write(decoded, 3);
+						}
+					} else if (value == PADDING) {
+						padded = true;
+					} else if (value == INVALID) {
+						throw new IllegalArgumentException("The image is not valid Base64: illegal character " + (char) (chunk.getByte(read + i) & 0xFF));
+					}
+				}
+				return decoded;
+			} catch (RuntimeException e) {
+				DataBufferUtils.release(decoded);
+				throw e;
+			}
+		}
+		
+		// The last quartet may be incomplete when the padding was omitted
+		DataBuffer finish() {
+			if (count == 1) {
+				throw new IllegalArgumentException("The image is not valid Base64: truncated input");
+			}
+			int bytes = count == 0 ? 0 : count - 1;
+			DataBuffer decoded = factory.allocateBuffer(bytes);
+			if (bytes > 0) {
+				// Aligns the bits as if the quartet was complete
+				bits <<= 6 * (4 - count);
+				try {
+					write(decoded, bytes);
+				} catch (RuntimeException e) {
+					DataBufferUtils.release(decoded);
+					throw e;
+				}
+			}
+			return decoded;
+		}
+		
+		private void write(DataBuffer decoded, int bytes) {
+			decodedSize += bytes;
+			if (decodedSize > maxSize) {
+				throw new DataBufferLimitException("The image exceeds the maximum size of " + maxSize + " bytes");
+			}
+			decoded.write((byte) (bits >> 16));
+			if (bytes > 1) {
+				decoded.write((byte) (bits >> 8));
+			}
+			if (bytes > 2) {
+				decoded.write((byte) bits);
+			}
+			bits = 0;
+			count = 0;
+		}
+	}
+}
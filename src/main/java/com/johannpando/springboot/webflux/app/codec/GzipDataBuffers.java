@@ -0,0 +1,355 @@
+package com.johannpando.springboot.webflux.app.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Gzip (RFC 1952) of a stream of buffers, chunk by chunk: only the window of the deflater and the current chunk
+// are in memory, whatever the size of the stream. The input buffers are released as soon as they are processed.
+// The decompressed chunks are inflated when they are requested, a small buffer that expands a lot is never inflated whole
+public final class GzipDataBuffers {
+	
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	
+	// Magic, deflate, no flags, no time, no extra flags, unknown OS
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	
+	private static final int TRAILER_LENGTH = 8;
+	
+	private static final byte[] EMPTY = new byte[0];
+	
+	// Size of the output chunks
+	private static final int CHUNK_SIZE = 16 * 1024;
+	
+	private GzipDataBuffers() {
+	}
+	
+	public static Flux<DataBuffer> compress(Flux<DataBuffer> input, DataBufferFactory factory) {
+		return Flux.defer(() -> {
+			Compression compression = new Compression();
+			return Flux.just(factory.wrap(HEADER.clone()))
+				.concatWith(input.concatMapIterable(buffer -> {
+					try {
+						return wrap(factory, compression.compress(buffer));
+					} finally {
+						DataBufferUtils.release(buffer);
+					}
+				}))
+				.concatWith(Flux.defer(() -> Flux.fromIterable(wrap(factory, compression.finish()))))
+				.doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+				// The native memory of the deflater, also when the client goes away in the middle
+				.doFinally(signal -> compression.end());
+		});
+	}
+	
+	// Several members one after the other are read as one stream, like gunzip does. Fails with DataBufferLimitException
+	// as soon as the decompressed stream goes over maxSize
+	public static Flux<DataBuffer> decompress(Flux<DataBuffer> input, long maxSize) {
+		return Flux.defer(() -> {
+			Decompression decompression = new Decompression(maxSize);
+			return input.concatMapIterable(buffer -> {
+					DataBufferFactory factory = buffer.factory();
+					try {
+						decompression.feed(buffer);
+					} finally {
+						DataBufferUtils.release(buffer);
+					}
+					// concatMapIterable pulls the iterator on demand, one chunk at a time
+					return () -> decompression.chunks(factory);
+				})
+				.concatWith(Mono.<DataBuffer>fromRunnable(decompression::finish))
+				.doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+				.doFinally(signal -> decompression.end());
+		});
+	}
+	
+	private static List<DataBuffer> wrap(DataBufferFactory factory, List<byte[]> chunks) {
+		List<DataBuffer> buffers = new ArrayList<>(chunks.size());
+		for (byte[] chunk : chunks) {
+			buffers.add(factory.wrap(chunk));
+		}
+		return buffers;
+	}
+	
+	private static byte[] bytes(DataBuffer buffer) {
+		byte[] bytes = new byte[buffer.readableByteCount()];
+		buffer.read(bytes);
+		return bytes;
+	}
+	
+	private static final class Compression {
+		
+		private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		
+		private final CRC32 crc = new CRC32();
+		
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+		
+		private List<byte[]> compress(DataBuffer buffer) {
+			byte[] input = bytes(buffer);
+			crc.update(input);
+			deflater.setInput(input);
+			List<byte[]> output = new ArrayList<>();
+			// The deflater keeps what it can not compress yet, the output comes when its buffers are full
+			while (!deflater.needsInput()) {
+				drain(output);
+			}
+			return output;
+		}
+		
+		private List<byte[]> finish() {
+			deflater.finish();
+			List<byte[]> output = new ArrayList<>();
+			while (!deflater.finished()) {
+				drain(output);
+			}
+			// CRC and size of the uncompressed data, little endian
+			long crcValue = crc.getValue();
+			long size = deflater.getBytesRead();
+			output.add(new byte[] {
+					(byte) crcValue, (byte) (crcValue >> 8), (byte) (crcValue >> 16), (byte) (crcValue >> 24),
+					(byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) });
+			return output;
+		}
+		
+		private void drain(List<byte[]> output) {
+			int length = deflater.deflate(chunk);
+			if (length > 0) {
+				output.add(Arrays.copyOf(chunk, length));
+			}
+		}
+		
+		private void end() {
+			deflater.end();
+		}
+	}
+	
+	private static final class Decompression {
+		
+		private enum Stage { HEADER, BODY, TRAILER }
+		
+		private final Inflater inflater = new Inflater(true);
+		
+		private final CRC32 crc = new CRC32();
+		
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+		
+		private final long maxSize;
+		
+		private Stage stage = Stage.HEADER;
+		
+		// The buffer being decompressed and the position of the next header or trailer in it
+		private byte[] input = EMPTY;
+		
+		private int position;
+		
+		// Bytes of a header or a trailer split between two input buffers
+		private byte[] pending = EMPTY;
+		
+		// Decompressed bytes of the whole stream
+		private long size;
+		
+		private int members;
+		
+		private Decompression(long maxSize) {
+			this.maxSize = maxSize;
+		}
+		
+		private void feed(DataBuffer buffer) {
+			input = concat(pending, bytes(buffer));
+			pending = EMPTY;
+			position = 0;
+			if (stage == Stage.BODY) {
+				// The member goes on in this buffer
+				inflater.setInput(input);
+			}
+		}
+		
+		private Iterator<DataBuffer> chunks(DataBufferFactory factory) {
+			return new Iterator<>() {
+				
+				private byte[] next;
+				
+				@Override
+				public boolean hasNext() {
+					if (next == null) {
+						next = nextChunk();
+					}
+					return next != null;
+				}
+				
+				@Override
+				public DataBuffer next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					DataBuffer buffer = factory.wrap(next);
+					next = null;
+					return buffer;
+				}
+			};
+		}
+		
+		// The next decompressed chunk of the current input, null when the input is used up
+		// (an incomplete header or trailer is kept for the next buffer)
+		private byte[] nextChunk() {
+			while (true) {
+				if (stage == Stage.BODY) {
+					byte[] chunk = inflate();
+					if (chunk != null) {
+						return chunk;
+					}
+					if (!inflater.finished()) {
+						// The whole input is consumed, the member goes on in the next buffer
+						position = input.length;
+						return endOfInput();
+					}
+					position = input.length - inflater.getRemaining();
+					stage = Stage.TRAILER;
+				} else if (position >= input.length) {
+					return endOfInput();
+				} else if (stage == Stage.HEADER) {
+					int headerLength = headerLength(input, position);
+					if (headerLength < 0) {
+						return endOfInput();
+					}
+					position += headerLength;
+					inflater.reset();
+					crc.reset();
+					inflater.setInput(input, position, input.length - position);
+					stage = Stage.BODY;
+				} else {
+					if (input.length - position < TRAILER_LENGTH) {
+						return endOfInput();
+					}
+					checkTrailer(input, position);
+					position += TRAILER_LENGTH;
+					members++;
+					stage = Stage.HEADER;
+				}
+			}
+		}
+		
+		private byte[] endOfInput() {
+			pending = position < input.length ? Arrays.copyOfRange(input, position, input.length) : EMPTY;
+			input = EMPTY;
+			position = 0;
+			return null;
+		}
+		
+		// One chunk at most, null when the inflater needs more input or the member is finished
+		private byte[] inflate() {
+			try {
+				while (true) {
+					int length = inflater.inflate(chunk);
+					if (inflater.needsDictionary()) {
+						throw new IllegalArgumentException("The gzip stream needs a dictionary");
+					}
+					if (length > 0) {
+						crc.update(chunk, 0, length);
+						size += length;
+						if (size > maxSize) {
+							throw new DataBufferLimitException("The decompressed content exceeds the maximum size of " + maxSize + " bytes");
+						}
+						return Arrays.copyOf(chunk, length);
+					}
+					if (inflater.needsInput() || inflater.finished()) {
+						return null;
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalArgumentException("The gzip stream is corrupted: " + e.getMessage(), e);
+			}
+		}
+		
+		private void checkTrailer(byte[] input, int position) {
+			long crcValue = littleEndianInt(input, position);
+			long size = littleEndianInt(input, position + 4);
+			if (crcValue != crc.getValue() || size != (inflater.getBytesWritten() & 0xffffffffL)) {
+				throw new IllegalArgumentException("The gzip stream is corrupted: wrong checksum or size");
+			}
+		}
+		
+		private void finish() {
+			if (members == 0 || stage != Stage.HEADER || pending.length > 0) {
+				throw new IllegalArgumentException("The gzip stream is truncated");
+			}
+		}
+		
+		private void end() {
+			inflater.end();
+		}
+		
+		// -1 while the header is not complete
+		private static int headerLength(byte[] input, int position) {
+			int end = input.length;
+			if (end - position < HEADER.length) {
+				return -1;
+			}
+			if ((input[position] & 0xff) != 0x1f || (input[position + 1] & 0xff) != 0x8b) {
+				throw new IllegalArgumentException("The content is not gzip");
+			}
+			if (input[position + 2] != 8) {
+				throw new IllegalArgumentException("The gzip compression method is not deflate");
+			}
+			int flags = input[position + 3] & 0xff;
+			int i = position + HEADER.length;
+			if ((flags & FEXTRA) != 0) {
+				if (end - i < 2) {
+					return -1;
+				}
+				i += 2 + ((input[i] & 0xff) | (input[i + 1] & 0xff) << 8);
+			}
+			if ((flags & FNAME) != 0) {
+				i = afterZero(input, i);
+			}
+			if (i >= 0 && (flags & FCOMMENT) != 0) {
+				i = afterZero(input, i);
+			}
+			if (i >= 0 && (flags & FHCRC) != 0) {
+				i += 2;
+			}
+			return i < 0 || i > end ? -1 : i - position;
+		}
+		
+		private static int afterZero(byte[] input, int from) {
+			for (int i = from; i < input.length; i++) {
+				if (input[i] == 0) {
+					return i + 1;
+				}
+			}
+			return -1;
+		}
+		
+		private static long littleEndianInt(byte[] input, int position) {
+			return (input[position] & 0xffL) | (input[position + 1] & 0xffL) << 8
+					| (input[position + 2] & 0xffL) << 16 | (input[position + 3] & 0xffL) << 24;
+		}
+		
+		private static byte[] concat(byte[] first, byte[] second) {
+			if (first.length == 0) {
+				return second;
+			}
+			byte[] joined = Arrays.copyOf(first, first.length + second.length);
+			System.arraycopy(second, 0, joined, first.length, second.length);
+			return joined;
+		}
+	}
+}
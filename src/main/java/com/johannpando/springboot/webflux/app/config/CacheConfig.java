@@ -0,0 +1,55 @@
+package com.johannpando.springboot.webflux.app.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.johannpando.springboot.webflux.app.cache.ReactiveCache;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ImageVariantDTO;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+@Configuration
+public class CacheConfig {
+
+	@Bean
+	ReactiveCache<Product> productCache(MeterRegistry meterRegistry,
+			@Value("${app.cache.products.maximum-size}") long maximumSize,
+			@Value("${app.cache.products.expire-after-write}") Duration expireAfterWrite) {
+		return new ReactiveCache<>(buildCache(meterRegistry, "products", maximumSize, expireAfterWrite), product -> {
+			Product copy = new Product();
+			BeanUtils.copyProperties(product, copy);
+			return copy;
+		});
+	}
+	
+	@Bean
+	ReactiveCache<ImageVariantDTO> imageVariantCache(MeterRegistry meterRegistry,
+			@Value("${app.cache.image-variants.maximum-weight}") DataSize maximumWeight) {
+		// Weighted by the bytes of the thumbnails, so the cache never holds more than maximumWeight of images
+		AsyncCache<String, ImageVariantDTO> cache = Caffeine.newBuilder()
+				.maximumWeight(maximumWeight.toBytes())
+				.weigher((String key, ImageVariantDTO variant) -> variant.getContent().length)
+				.recordStats()
+				.buildAsync();
+		// The variants are never modified, the readers share the same bytes
+		return new ReactiveCache<>(CaffeineCacheMetrics.monitor(meterRegistry, cache, "image-variants"), variant -> variant);
+	}
+	
+	private static <V> AsyncCache<String, V> buildCache(MeterRegistry meterRegistry, String name, long maximumSize, Duration expireAfterWrite) {
+		AsyncCache<String, V> cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats() // Hits, misses and evictions, published as cache.gets / cache.evictions in the actuator
+				.buildAsync();
+		return CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+	}
+}
@@ -0,0 +1,37 @@
+package com.johannpando.springboot.webflux.app.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+
+import com.johannpando.springboot.webflux.app.ratelimit.RateLimitProperties;
+import com.johannpando.springboot.webflux.app.ratelimit.RateLimitRules;
+import com.johannpando.springboot.webflux.app.ratelimit.RateLimited;
+
+@Configuration
+@EnableConfigurationProperties(RateLimitProperties.class)
+public class RateLimitConfig {
+
+	// Rules of the controller methods annotated with @RateLimited, with the paths and methods of their mappings
+	@Bean
+	RateLimitRules controllerRateLimits(@Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping handlerMapping) {
+		RateLimitRules rules = new RateLimitRules();
+		handlerMapping.getHandlerMethods().forEach((info, method) -> {
+			RateLimited rateLimited = method.getMethodAnnotation(RateLimited.class);
+			if (rateLimited == null) {
+				return;
+			}
+			info.getPatternsCondition().getPatterns().forEach(pattern -> {
+				if (info.getMethodsCondition().getMethods().isEmpty()) {
+					rules.add(null, pattern, rateLimited.value());
+				}
+				info.getMethodsCondition().getMethods()
+					.forEach(requestMethod -> rules.add(HttpMethod.valueOf(requestMethod.name()), pattern, rateLimited.value()));
+			});
+		});
+		return rules;
+	}
+}
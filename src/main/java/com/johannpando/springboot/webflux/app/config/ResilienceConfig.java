@@ -0,0 +1,51 @@
+package com.johannpando.springboot.webflux.app.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.johannpando.springboot.webflux.app.resilience.MongoFailures;
+import com.johannpando.springboot.webflux.app.resilience.ResilienceProperties;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+@EnableConfigurationProperties(ResilienceProperties.class)
+public class ResilienceConfig {
+
+	private static final Logger log = LoggerFactory.getLogger(ResilienceConfig.class);
+	
+	@Bean
+	CircuitBreakerRegistry circuitBreakerRegistry(MeterRegistry meterRegistry) {
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+		// resilience4j.circuitbreaker.state, .calls, .failure.rate... tagged with the name of the circuit
+		TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+		return registry;
+	}
+	
+	// A single circuit for all the DAOs, they all go to the same Mongo
+	@Bean
+	CircuitBreaker mongoCircuitBreaker(CircuitBreakerRegistry registry, ResilienceProperties properties) {
+		ResilienceProperties.CircuitBreaker settings = properties.getCircuitBreaker();
+		CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+				.failureRateThreshold(settings.getFailureRateThreshold())
+				.slidingWindowSize(settings.getSlidingWindowSize())
+				.minimumNumberOfCalls(settings.getMinimumNumberOfCalls())
+				.waitDurationInOpenState(settings.getWaitDurationInOpenState())
+				.permittedNumberOfCallsInHalfOpenState(settings.getPermittedCallsInHalfOpenState())
+				.automaticTransitionFromOpenToHalfOpenEnabled(true)
+				// A validation error or a stale version is an answer of Mongo, not a failure
+				.recordException(MongoFailures::isTransient)
+				.build();
+		CircuitBreaker circuitBreaker = registry.circuitBreaker("mongo", config);
+		circuitBreaker.getEventPublisher()
+			.onStateTransition(event -> log.warn("The circuit of Mongo goes " + event.getStateTransition()));
+		return circuitBreaker;
+	}
+}
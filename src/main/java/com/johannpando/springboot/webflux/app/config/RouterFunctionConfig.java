@@ -2,29 +2,84 @@ package com.johannpando.springboot.webflux.app.config;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.DELETE;
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.PATCH;
 import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
 import static org.springframework.web.reactive.function.server.RequestPredicates.PUT;
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import com.johannpando.springboot.webflux.app.handler.CategoryHandler;
 import com.johannpando.springboot.webflux.app.handler.ProductHandler;
+import com.johannpando.springboot.webflux.app.ratelimit.RateLimitRules;
 
 @Configuration
 public class RouterFunctionConfig {
 
     @Bean
     RouterFunction<ServerResponse> routes(ProductHandler handler) {
-		return route(GET("/api/v2/products").or(GET("/api/v3/products")), 
+		// The streaming variant must be declared first, the JSON listing matches any GET
+		return route(GET("/api/v2/products").or(GET("/api/v3/products")).and(acceptsStreaming()), handler::streamProducts)
+				.andRoute(GET("/api/v2/products").or(GET("/api/v3/products")), 
 				//request -> handler.listAllProducts(request));
 				// It is the same
 				handler::listAllProducts)
+				// Before the detail, otherwise "search" would be taken as an id
+				.andRoute(GET("/api/v2/products/search"), handler::searchProducts)
+				.andRoute(GET("/api/v2/products/typeahead"), handler::typeahead)
+				.andRoute(GET("/api/v2/products/changes"), handler::streamChanges)
+				.andRoute(GET("/api/v2/products/export"), handler::exportCatalog)
 				.andRoute(GET("/api/v2/products/{id}"), handler::getProductById)
 				.andRoute(POST("/api/v2/products"), handler::createProduct)
+				.andRoute(POST("/api/v2/products/bulk"), handler::bulkProducts)
+				.andRoute(POST("/api/v2/products/bulk-delete"), handler::deleteProducts)
+				.andRoute(POST("/api/v2/products/import"), handler::importCatalog)
 				.andRoute(PUT("/api/v2/products/{id}"), handler::updatedProduct)
-				.andRoute(DELETE("/api/v2/products/{id}"), handler::deleteProduct);
+				.andRoute(PATCH("/api/v2/products/{id}"), handler::patchProduct)
+				.andRoute(DELETE("/api/v2/products/{id}"), handler::deleteProduct)
+				.andRoute(GET("/api/v2/products/{id}/image"), handler::getImage)
+				// A Base64 body is decoded while it arrives, any other content type is a multipart upload
+				.andRoute(POST("/api/v2/products/{id}/image").and(contentType(MediaType.TEXT_PLAIN)), handler::uploadBase64Image)
+				.andRoute(POST("/api/v2/products/{id}/image"), handler::uploadImage);
 	}
+    
+    @Bean
+    RouterFunction<ServerResponse> categoryRoutes(CategoryHandler handler) {
+		return route(GET("/api/v2/categories"), handler::listCategories)
+				// Before the detail, otherwise "stats" would be taken as an id
+				.andRoute(GET("/api/v2/categories/stats"), handler::stats)
+				.andRoute(GET("/api/v2/categories/{id}"), handler::getCategory)
+				.andRoute(POST("/api/v2/categories"), handler::createCategory)
+				.andRoute(PUT("/api/v2/categories/{id}"), handler::updateCategory)
+				.andRoute(DELETE("/api/v2/categories/{id}"), handler::deleteCategory);
+	}
+    
+    // Limits of app.ratelimit.limits applied to the routes, the controller mappings use @RateLimited
+    @Bean
+    RateLimitRules routeRateLimits() {
+    	return new RateLimitRules()
+    			.add(HttpMethod.POST, "/api/v2/products/bulk", "bulk")
+    			.add(HttpMethod.POST, "/api/v2/products/bulk-delete", "bulk")
+    			.add(HttpMethod.GET, "/api/v2/products/export", "transfer")
+    			.add(HttpMethod.POST, "/api/v2/products/import", "transfer")
+    			.add(HttpMethod.GET, "/api/v2/products/search", "search")
+    			.add(HttpMethod.GET, "/api/v2/products/typeahead", "typeahead")
+    			// The listing and its streaming variant, the unbounded reads of the collection
+    			.add(HttpMethod.GET, "/api/v2/products", "listing")
+    			.add(HttpMethod.GET, "/api/v3/products", "listing");
+    }
+    
+    // RequestPredicates.accept() also matches "*/*", we only stream when the client explicitly asks for it
+    private static RequestPredicate acceptsStreaming() {
+    	return request -> request.headers().accept().stream()
+    			.anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(MediaType.APPLICATION_NDJSON)
+    					|| mediaType.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM));
+    }
 }
@@ -0,0 +1,19 @@
+package com.johannpando.springboot.webflux.app.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+public class SchedulerConfig {
+
+	// Bounded threads and queue for the thumbnails, when both are full the requests fail instead of piling up
+	@Bean(destroyMethod = "dispose")
+	Scheduler thumbnailScheduler(@Value("${app.images.thumbnails.threads}") int threads,
+			@Value("${app.images.thumbnails.queue}") int queue) {
+		return Schedulers.newBoundedElastic(threads, queue, "thumbnails");
+	}
+}
@@ -0,0 +1,29 @@
+package com.johannpando.springboot.webflux.app.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.Validator;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import com.johannpando.springboot.webflux.app.validation.CachedBeanValidator;
+
+@Configuration
+public class ValidationConfig implements WebFluxConfigurer {
+
+	// The validator of Spring Boot, it still builds the errors and validates what is not compiled
+	@Autowired
+	private LocalValidatorFactoryBean defaultValidator;
+	
+	@Bean
+	CachedBeanValidator cachedBeanValidator() {
+		return new CachedBeanValidator(defaultValidator);
+	}
+	
+	// @Valid in the controllers goes through the same validator as the handlers
+	@Override
+	public Validator getValidator() {
+		return cachedBeanValidator();
+	}
+}
@@ -0,0 +1,107 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.document.CategoryStats;
+import com.johannpando.springboot.webflux.app.document.Product;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// The statistics of the products by category: computed by an aggregation over the products,
+// and stored as a rollup (one small document by category) that the writes of the products keep up to date
+@Component
+public class CategoryStatsStore {
+
+	private static final String COLLECTION = "categoryStats";
+	
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+	
+	public Flux<CategoryStats> findAll() {
+		return reactiveMongoTemplate.findAll(CategoryStats.class);
+	}
+	
+	// $group of the products by category, over the whole collection (null) or only some categories (index categoryId_price)
+	public Flux<CategoryStats> aggregate(Collection<String> categoryIds) {
+		Criteria criteria = categoryIds == null 
+				? Criteria.where("categoryId").ne(null) : Criteria.where("categoryId").in(categoryIds);
+		return reactiveMongoTemplate.aggregate(Aggregation.newAggregation(Aggregation.match(criteria), group()), 
+				Product.class, CategoryStats.class);
+	}
+	
+	// The rollup is computed again from the products and replaces the collection in one step ($out)
+	public Mono<Void> rebuild() {
+		Aggregation aggregation = Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("categoryId").ne(null)),
+				group(),
+				Aggregation.out(COLLECTION))
+			.withOptions(AggregationOptions.builder().skipOutput().build());
+		return reactiveMongoTemplate.aggregate(aggregation, Product.class, CategoryStats.class).then();
+	}
+	
+	// A new product: counters and extremes are updated in place, no need to read the others
+	public Mono<Void> add(String categoryId, double price, Date createAt) {
+		CategoryStats added = new CategoryStats();
+		added.setCategoryId(categoryId);
+		added.setCount(1);
+		added.setPriceSum(price);
+		added.setMinPrice(price);
+		added.setMaxPrice(price);
+		added.setNewestCreateAt(createAt);
+		return add(added);
+	}
+	
+	// The statistics of some new products of the category, added to the rollup in one update
+	public Mono<Void> add(CategoryStats added) {
+		Update update = new Update()
+				.inc("count", added.getCount())
+				.inc("priceSum", added.getPriceSum())
+				.min("minPrice", added.getMinPrice())
+				.max("maxPrice", added.getMaxPrice());
+		if (added.getNewestCreateAt() != null) {
+			update.max("newestCreateAt", added.getNewestCreateAt());
+		}
+		return reactiveMongoTemplate.upsert(query(added.getCategoryId()), update, CategoryStats.class).then();
+	}
+	
+	// Removed products: the counters go down, the extremes are left for the caller to check
+	public Mono<CategoryStats> subtract(String categoryId, long count, double priceSum) {
+		return reactiveMongoTemplate.findAndModify(query(categoryId), 
+				new Update().inc("count", -count).inc("priceSum", -priceSum),
+				FindAndModifyOptions.options().returnNew(true), CategoryStats.class);
+	}
+	
+	public Mono<Void> save(CategoryStats stats) {
+		return reactiveMongoTemplate.save(stats).then();
+	}
+	
+	public Mono<Void> delete(String categoryId) {
+		return reactiveMongoTemplate.remove(query(categoryId), CategoryStats.class).then();
+	}
+	
+	private static GroupOperation group() {
+		return Aggregation.group("categoryId")
+				.count().as("count")
+				.sum("price").as("priceSum")
+				.min("price").as("minPrice")
+				.max("price").as("maxPrice")
+				.max("createAt").as("newestCreateAt");
+	}
+	
+	private static Query query(String categoryId) {
+		return Query.query(Criteria.where("_id").is(categoryId));
+	}
+}
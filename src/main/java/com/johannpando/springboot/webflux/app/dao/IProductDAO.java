@@ -4,7 +4,10 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 
 import com.johannpando.springboot.webflux.app.document.Product;
 
-public interface IProductDAO extends ReactiveMongoRepository<Product, String>{
-	
+import reactor.core.publisher.Mono;
+
+public interface IProductDAO extends ReactiveMongoRepository<Product, String>, IProductDAOCustom {
 	
+	// Index categoryId_price, Mongo stops at the first product
+	Mono<Boolean> existsByCategoryId(String categoryId);
 }
@@ -0,0 +1,62 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Queries that need the ReactiveMongoTemplate, Spring Data plugs them into IProductDAO
+public interface IProductDAOCustom {
+
+	// Keyset pagination: up to "limit" products ordered by _id, starting right after "afterId" (null for the first page)
+	Flux<Product> findPage(String afterId, int limit, Set<String> fields);
+	
+	// The whole collection through a cursor that fetches "batchSize" documents per round-trip
+	Flux<Product> streamAll(int batchSize, Set<String> fields);
+	
+	// Only the given fields of the product are read from Mongo
+	Mono<Product> findById(String id, Set<String> fields);
+	
+	Flux<Product> search(ProductSearchDTO search, Set<String> fields);
+	
+	// One unordered bulk write: products without id are inserted (with a generated id), the others are upserted.
+	// An upsert replaces the stored product: the fields that the product does not have are removed, only the creation date is kept.
+	// Returns the error of each failed product by its position in the list, empty if every write succeeded
+	Mono<Map<Integer, String>> bulkUpsert(List<Product> products);
+	
+	// Replaces the product if it still has its version, in a single findAndModify that returns what it replaced
+	// (only what is needed to clean up after it), empty if the product or its version is not found
+	Mono<Product> replace(Product product);
+	
+	// Applies the update and increments the version in a single findAndModify, returning the new product.
+	// With an expected version, the product is only modified if it still has that version
+	Mono<Product> updateById(String id, Update update, Long expectedVersion);
+	
+	// Deletes the product in a single findAndRemove and returns what is needed to clean up after it (the image)
+	Mono<Product> removeById(String id);
+	
+	// Deletes every product that matches the filter and returns what is needed to clean up after them
+	Flux<Product> removeAll(ProductDeleteFilterDTO filter);
+	
+	// Only the given fields of the products, one round-trip whatever the number of ids
+	Flux<Product> findByIds(Collection<String> ids, Set<String> fields);
+	
+	// The date of the last write of a product, read from the end of the updatedAt index
+	Mono<Date> findLastUpdate();
+	
+	// The number of products from the metadata of the collection, without counting them
+	Mono<Long> estimatedCount();
+	
+	// Keeps the copy of the name of the category in its products up to date
+	Mono<Long> renameCategory(String categoryId, String categoryName);
+}
@@ -0,0 +1,215 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.document.ProductFields;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.UpdateResult;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// The "Impl" suffix is how Spring Data finds the implementation of IProductDAOCustom
+public class IProductDAOCustomImpl implements IProductDAOCustom {
+
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+
+	@Override
+	public Flux<Product> findPage(String afterId, int limit, Set<String> fields) {
+		Query query = new Query();
+		if (afterId != null) {
+			// Only the products after the last one already served, so Mongo never skips documents
+			query.addCriteria(Criteria.where("id").gt(new ObjectId(afterId)));
+		}
+		// The sort and the limit are pushed down to Mongo, which walks the default _id index
+		query.with(Sort.by(Sort.Direction.ASC, "id")).limit(limit);
+		include(query, fields);
+		return reactiveMongoTemplate.find(query, Product.class);
+	}
+
+	@Override
+	public Flux<Product> streamAll(int batchSize, Set<String> fields) {
+		// The cursor batch size matches the demand of the subscriber, so Mongo does not send more than we can write
+		Query query = new Query()
+				.with(Sort.by(Sort.Direction.ASC, "id"))
+				.cursorBatchSize(batchSize);
+		include(query, fields);
+		return reactiveMongoTemplate.find(query, Product.class);
+	}
+	
+	@Override
+	public Mono<Product> findById(String id, Set<String> fields) {
+		Query query = new Query(Criteria.where("id").is(id));
+		include(query, fields);
+		return reactiveMongoTemplate.findOne(query, Product.class);
+	}
+	
+	@Override
+	public Flux<Product> search(ProductSearchDTO search, Set<String> fields) {
+		// Deferred, so a wrong search is an error of the Flux and not of the caller
+		return Flux.defer(() -> {
+			Query query = ProductSearchQuery.of(search);
+			include(query, fields);
+			return reactiveMongoTemplate.find(query, Product.class);
+		});
+	}
+	
+	@Override
+	public Mono<Map<Integer, String>> bulkUpsert(List<Product> products) {
+		// Unordered: Mongo goes on with the rest of the batch when a write fails
+		ReactiveBulkOperations bulk = reactiveMongoTemplate.bulkOps(BulkMode.UNORDERED, Product.class);
+		for (Product product : products) {
+			if (product.getId() == null) {
+				// The id is generated here, so the caller knows it without reading the product again
+				product.setId(new ObjectId().toHexString());
+				// New products start with the first version, like the ones created with save
+				product.setVersion(0L);
+				bulk.insert(product);
+			} else {
+				bulk.upsert(new Query(Criteria.where("id").is(product.getId())), replaceKeepingVersion(product));
+			}
+		}
+		return bulk.execute()
+			.map(result -> Map.<Integer, String>of())
+			.onErrorResume(e -> bulkWriteErrors(e) != null, e -> Mono.just(bulkWriteErrors(e).stream()
+					.collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage))));
+	}
+	
+	@Override
+	public Mono<Product> replace(Product product) {
+		Query query = new Query(Criteria.where("id").is(product.getId()).and("version").is(product.getVersion()));
+		include(query, ProductFields.PREVIOUS);
+		return reactiveMongoTemplate.findAndModify(query, replaceKeepingVersion(product), 
+				FindAndModifyOptions.options().returnNew(false), Product.class);
+	}
+	
+	@Override
+	public Mono<Product> updateById(String id, Update update, Long expectedVersion) {
+		Query query = new Query(Criteria.where("id").is(id));
+		if (expectedVersion != null) {
+			query.addCriteria(Criteria.where("version").is(expectedVersion));
+		}
+		// One round-trip: the check of the version, the $set and the read of the new product are atomic in Mongo
+		return reactiveMongoTemplate.findAndModify(query, update.inc("version", 1), 
+				FindAndModifyOptions.options().returnNew(true), Product.class);
+	}
+	
+	@Override
+	public Mono<Product> removeById(String id) {
+		Query query = new Query(Criteria.where("id").is(id));
+		include(query, ProductFields.PREVIOUS);
+		return reactiveMongoTemplate.findAndRemove(query, Product.class);
+	}
+	
+	@Override
+	public Flux<Product> removeAll(ProductDeleteFilterDTO filter) {
+		Query query = new Query();
+		if (filter.getIds() != null && !filter.getIds().isEmpty()) {
+			query.addCriteria(Criteria.where("id").in(filter.getIds()));
+		}
+		if (filter.getCategoryId() != null) {
+			query.addCriteria(Criteria.where("categoryId").is(filter.getCategoryId()));
+		}
+		if (filter.getCreatedBefore() != null) {
+			query.addCriteria(Criteria.where("createAt").lt(filter.getCreatedBefore()));
+		}
+		include(query, ProductFields.PREVIOUS);
+		return reactiveMongoTemplate.findAllAndRemove(query, Product.class);
+	}
+	
+	@Override
+	public Flux<Product> findByIds(Collection<String> ids, Set<String> fields) {
+		Query query = new Query(Criteria.where("id").in(ids));
+		include(query, fields);
+		return reactiveMongoTemplate.find(query, Product.class);
+	}
+	
+	@Override
+	public Mono<Date> findLastUpdate() {
+		Query query = new Query().with(Sort.by(Sort.Direction.DESC, "updatedAt")).limit(1);
+		query.fields().include("updatedAt");
+		return reactiveMongoTemplate.findOne(query, Product.class).mapNotNull(Product::getUpdatedAt);
+	}
+	
+	@Override
+	public Mono<Long> estimatedCount() {
+		return reactiveMongoTemplate.estimatedCount(Product.class);
+	}
+	
+	@Override
+	public Mono<Long> renameCategory(String categoryId, String categoryName) {
+		return reactiveMongoTemplate.updateMulti(new Query(Criteria.where("categoryId").is(categoryId)), 
+				new Update().set("categoryName", categoryName), Product.class)
+			.map(UpdateResult::getModifiedCount);
+	}
+	
+	// $set of every field of the product instead of a replacement, so the version goes on from the stored one.
+	// The fields that the product does not have are removed, the upsert replaces the stored product instead of merging into it
+	private Update replaceKeepingVersion(Product product) {
+		Document document = new Document();
+		reactiveMongoTemplate.getConverter().write(product, document);
+		document.remove("_id");
+		document.remove("version");
+		Update update = new Update();
+		document.forEach(update::set);
+		MongoPersistentEntity<?> entity = reactiveMongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(Product.class);
+		for (MongoPersistentProperty property : entity) {
+			// The id and the version are never replaced, the creation date is kept, the text score is not stored
+			if (property.isIdProperty() || property.isVersionProperty() || property.isTextScoreProperty() 
+					|| "createAt".equals(property.getFieldName()) || document.containsKey(property.getFieldName())) {
+				continue;
+			}
+			update.unset(property.getFieldName());
+		}
+		// The creation date of an existing product is never replaced, it is only set when the upsert inserts
+		if (product.getCreateAt() == null) {
+			update.setOnInsert("createAt", new Date());
+		}
+		return update.inc("version", 1);
+	}
+	
+	// Depending on the error, Spring translates the driver exception into BulkOperationException or DuplicateKeyException,
+	// the errors of each write are in the MongoBulkWriteException of the cause chain
+	private static List<BulkWriteError> bulkWriteErrors(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof BulkOperationException bulkException) {
+				return bulkException.getErrors();
+			}
+			if (cause instanceof MongoBulkWriteException bulkException) {
+				return bulkException.getWriteErrors();
+			}
+		}
+		return null;
+	}
+	
+	// Mongo excludes every other field on the server, so they are neither sent nor decoded
+	private static void include(Query query, Set<String> fields) {
+		// The category is resolved from its reference, which is the field stored in the document
+		fields.forEach(field -> query.fields().include("category".equals(field) ? "categoryId" : field));
+	}
+}
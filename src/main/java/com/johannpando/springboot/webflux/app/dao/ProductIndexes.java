@@ -0,0 +1,49 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition.TextIndexDefinitionBuilder;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.document.Product;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Indexes of the products collection, created at startup (Spring Data does not create them from the annotations)
+@Component
+public class ProductIndexes {
+
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+	
+	public Mono<Void> ensureIndexes() {
+		ReactiveIndexOperations indexOps = reactiveMongoTemplate.indexOps(Product.class);
+		return Flux.just(
+				// The products of a category in a range of prices, and sorted by price
+				new Index().on("categoryId", Sort.Direction.ASC).on("price", Sort.Direction.ASC).named("categoryId_price"),
+				// Prefix of the name
+				new Index().on("name", Sort.Direction.ASC).named("name"),
+				// Range of creation dates
+				new Index().on("createAt", Sort.Direction.ASC).named("createAt"),
+				// The last write, probed by the CatalogVersion
+				new Index().on("updatedAt", Sort.Direction.DESC).named("updatedAt"),
+				// Full-text search, a word in the name of the product weighs more than in the name of its category
+				new TextIndexDefinitionBuilder()
+					.onField("name", 10F)
+					.onField("categoryName", 2F)
+					.named("name_categoryName_text")
+					.build())
+			// ensureIndex does nothing if the index already exists
+			.concatMap(indexOps::ensureIndex)
+			// The thumbnails of an image are looked up by the metadata of the GridFS files
+			.thenMany(reactiveMongoTemplate.indexOps("fs.files").ensureIndex(new Index()
+					.on("metadata.variantOf", Sort.Direction.ASC)
+					.on("metadata.size", Sort.Direction.ASC)
+					.named("variantOf_size")))
+			.then();
+	}
+}
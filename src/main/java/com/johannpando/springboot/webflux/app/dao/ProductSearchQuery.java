@@ -0,0 +1,79 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+
+import com.johannpando.springboot.webflux.app.document.ProductFields;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+
+// Builds the query of the product search, every filter is covered by one of the indexes of ProductIndexes
+public final class ProductSearchQuery {
+
+	private ProductSearchQuery() {
+	}
+	
+	public static Query of(ProductSearchDTO search) {
+		Query query;
+		if (search.getText() != null) {
+			// $text uses the text index over the name of the product and the name of its category
+			TextQuery textQuery = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(search.getText()));
+			textQuery.includeScore();
+			if (search.getSort() == null) {
+				// The most relevant products first
+				textQuery.sortByScore();
+			}
+			query = textQuery;
+		} else {
+			query = new Query();
+		}
+		if (search.getCategoryId() != null) {
+			query.addCriteria(Criteria.where("categoryId").is(search.getCategoryId()));
+		}
+		if (search.getMinPrice() != null || search.getMaxPrice() != null) {
+			Criteria price = Criteria.where("price");
+			if (search.getMinPrice() != null) {
+				price.gte(search.getMinPrice());
+			}
+			if (search.getMaxPrice() != null) {
+				price.lte(search.getMaxPrice());
+			}
+			query.addCriteria(price);
+		}
+		if (search.getName() != null) {
+			// An anchored regex without special characters is a range on the index of the name
+			query.addCriteria(Criteria.where("name").regex("^" + escapeRegex(search.getName())));
+		}
+		if (search.getCreatedFrom() != null || search.getCreatedTo() != null) {
+			Criteria createAt = Criteria.where("createAt");
+			if (search.getCreatedFrom() != null) {
+				createAt.gte(search.getCreatedFrom());
+			}
+			if (search.getCreatedTo() != null) {
+				createAt.lte(search.getCreatedTo());
+			}
+			query.addCriteria(createAt);
+		}
+		if (search.getSort() != null) {
+			if (!ProductFields.SORTABLE.contains(search.getSort())) {
+				throw new IllegalArgumentException("The products can not be sorted by " + search.getSort());
+			}
+			query.with(Sort.by(search.getDirection(), search.getSort()));
+		}
+		return query.limit(search.getLimit());
+	}
+	
+	// A backslash before every character with a meaning in a regex, so the name is matched literally
+	private static String escapeRegex(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (char c : value.toCharArray()) {
+			if ("\\.^$|?*+()[]{}".indexOf(c) >= 0) {
+				escaped.append('\\');
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
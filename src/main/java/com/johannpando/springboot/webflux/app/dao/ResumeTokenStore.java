@@ -0,0 +1,50 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Mono;
+
+// Last resume token of every change stream, so after a restart the stream goes on where it stopped
+@Component
+public class ResumeTokenStore {
+
+	private static final String COLLECTION = "changeStreamTokens";
+	
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+	
+	public Mono<BsonValue> find(String consumerId, String stream) {
+		return reactiveMongoTemplate.findById(key(consumerId, stream), Document.class, COLLECTION)
+				// Stored as JSON, the token is opaque and must be given back to Mongo as it was read
+				.map(document -> BsonDocument.parse(document.getString("token")));
+	}
+	
+	public Mono<Void> save(String consumerId, String stream, BsonValue token) {
+		return reactiveMongoTemplate.upsert(query(consumerId, stream),
+				Update.update("token", token.asDocument().toJson()).set("updatedAt", new Date()), COLLECTION)
+				.then();
+	}
+	
+	public Mono<Void> delete(String consumerId, String stream) {
+		return reactiveMongoTemplate.remove(query(consumerId, stream), COLLECTION).then();
+	}
+	
+	private static Query query(String consumerId, String stream) {
+		return Query.query(Criteria.where("_id").is(key(consumerId, stream)));
+	}
+	
+	// Every instance reads the whole stream, so every instance keeps its own position
+	private static String key(String consumerId, String stream) {
+		return consumerId + ":" + stream;
+	}
+}
@@ -0,0 +1,34 @@
+package com.johannpando.springboot.webflux.app.document;
+
+import java.util.Date;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Rollup of the products of a category, kept up to date by the writes of the products.
+// The same shape is the output of the $group by categoryId, so a rebuild is written as it is read
+@Document(collection = "categoryStats")
+@Data
+@NoArgsConstructor
+public class CategoryStats {
+
+	// Stored as the string of the products (categoryId), never converted to an ObjectId, so the incremental
+	// updates and the $out of a rebuild write the same document
+	@MongoId(FieldType.STRING)
+	private String categoryId;
+	
+	private long count;
+	
+	// The average is priceSum / count, a sum can be incremented and decremented, an average can not
+	private double priceSum;
+	
+	private Double minPrice;
+	
+	private Double maxPrice;
+	
+	private Date newestCreateAt;
+}
@@ -3,9 +3,16 @@ package com.johannpando.springboot.webflux.app.document;
 import java.util.Date;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.TextScore;
 import org.springframework.format.annotation.DateTimeFormat;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.johannpando.springboot.webflux.app.validation.ExistingCategory;
+
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -28,11 +35,34 @@ public class Product {
 	@DateTimeFormat(pattern = "dd-MM-yyyy")
 	private Date createAt;
 	
+	// Set by the service on every write, it is the Last-Modified of the product
+	private Date updatedAt;
+	
+	// Reference to the category, it is the only thing about the category stored in the product
+	private String categoryId;
+	
+	// Sent by the clients and resolved from categoryId on read, it is not stored in the document
+	@Transient
 	@Valid
 	@NotNull
+	@ExistingCategory
 	private Category category;
 	
-	private byte[] image;
+	// Copy of the name of the category only for the full-text search, the API exposes the category
+	@JsonIgnore
+	private String categoryName;
+	
+	// Relevance of the product in a full-text search, only present in those results
+	@TextScore
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Float score;
+	
+	// Optimistic locking, every write increments it and it is the ETag of the product
+	@Version
+	private Long version;
+	
+	// Id of the image stored in GridFS, the bytes are served by GET /api/v2/products/{id}/image
+	private String imageId;
 	
 	public Product(String name, double price) {
 		this.name = name;
@@ -42,6 +72,14 @@ public class Product {
 	public Product(String name, double price, Category category) {
 		this.name = name;
 		this.price = price;
+		setCategory(category);
+	}
+	
+	public void setCategory(Category category) {
 		this.category = category;
+		// The reference follows the category as long as it has been saved
+		if (category != null && category.getId() != null) {
+			this.categoryId = category.getId();
+		}
 	}
 }
\ No newline at end of file
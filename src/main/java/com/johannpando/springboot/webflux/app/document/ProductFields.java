@@ -0,0 +1,42 @@
+package com.johannpando.springboot.webflux.app.document;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Projections of the products collection, the reads always include the fields they need,
+// so any heavy or legacy field of the document (like the old embedded image) never leaves Mongo
+public final class ProductFields {
+
+	// Every field that the API exposes, the default projection of the detail.
+	// The version must be read, a product saved without it would be taken as a new one
+	public static final Set<String> ALL = Set.of("id", "name", "price", "createAt", "updatedAt", "category", "version", "imageId");
+	
+	// Default projection of the listings
+	public static final Set<String> SUMMARY = Set.of("id", "name", "price", "category", "version", "imageId");
+	
+	// What is needed to clean up after a product that is replaced or removed: its image and its part of the statistics
+	public static final Set<String> PREVIOUS = Set.of("id", "imageId", "category", "price", "createAt");
+	
+	// Fields that the search can sort by, each one has an index
+	public static final Set<String> SORTABLE = Set.of("name", "price", "createAt");
+	
+	private ProductFields() {
+	}
+	
+	// Parses the "fields" query parameter (e.g. "name,price"), the id is always included
+	public static Set<String> parse(String fields) {
+		Set<String> projection = new LinkedHashSet<>();
+		projection.add("id");
+		for (String field : fields.split(",")) {
+			String trimmed = field.trim();
+			if (trimmed.isEmpty()) {
+				continue;
+			}
+			if (!ALL.contains(trimmed)) {
+				throw new IllegalArgumentException("The field " + trimmed + " does not exist");
+			}
+			projection.add(trimmed);
+		}
+		return projection;
+	}
+}
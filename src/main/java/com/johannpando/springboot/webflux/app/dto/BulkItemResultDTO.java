@@ -0,0 +1,28 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Result of each line of a bulk request, in the same order as the request
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkItemResultDTO {
+
+	public static final String CREATED = "CREATED";
+	public static final String UPSERTED = "UPSERTED";
+	public static final String INVALID = "INVALID";
+	public static final String FAILED = "FAILED";
+	
+	// Position of the item in the request, starting at 0
+	private long index;
+	
+	private String id;
+	
+	private String status;
+	
+	private List<String> errors;
+}
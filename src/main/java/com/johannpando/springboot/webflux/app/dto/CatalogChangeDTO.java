@@ -0,0 +1,32 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import java.time.Instant;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Change of the catalog read from the change streams of Mongo, published to the clients and to the caches
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CatalogChangeDTO {
+
+	// products or categories
+	private String collection;
+	
+	// insert, update, replace, delete, drop...
+	private String operation;
+	
+	// Null when the change is not about one document (drop)
+	private String id;
+	
+	// Product or Category after the change, null when it has been deleted
+	private Object document;
+	
+	// Time of the change in the cluster
+	private Instant at;
+}
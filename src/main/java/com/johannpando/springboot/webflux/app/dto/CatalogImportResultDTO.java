@@ -0,0 +1,40 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Summary of an import, the lines are not answered one by one as in the bulk endpoint
+@Data
+@NoArgsConstructor
+public class CatalogImportResultDTO {
+
+	private long categories;
+	
+	private long products;
+	
+	private long failed;
+	
+	// The first errors only, a broken file would otherwise return one error per line
+	private List<String> errors = new ArrayList<>();
+	
+	public CatalogImportResultDTO merge(CatalogImportResultDTO other, int maxErrors) {
+		categories += other.categories;
+		products += other.products;
+		failed += other.failed;
+		for (String error : other.errors) {
+			if (errors.size() >= maxErrors) {
+				break;
+			}
+			errors.add(error);
+		}
+		return this;
+	}
+	
+	public void fail(String error) {
+		failed++;
+		errors.add(error);
+	}
+}
@@ -0,0 +1,32 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One line of an export of the catalog: a category or a product, the categories come first
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CatalogRecordDTO {
+
+	private Category category;
+	
+	private Product product;
+	
+	// Content of the image of the product in Base64, only when the export includes the images
+	private String imageProduct;
+	
+	public static CatalogRecordDTO of(Category category) {
+		return new CatalogRecordDTO(category, null, null);
+	}
+	
+	public static CatalogRecordDTO of(Product product, String imageProduct) {
+		return new CatalogRecordDTO(null, product, imageProduct);
+	}
+}
@@ -0,0 +1,36 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import java.util.Date;
+
+import com.johannpando.springboot.webflux.app.document.CategoryStats;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CategoryStatsDTO {
+
+	private String categoryId;
+	
+	// Null when the category of the products does not exist anymore
+	private String categoryName;
+	
+	private long count;
+	
+	private Double minPrice;
+	
+	private Double avgPrice;
+	
+	private Double maxPrice;
+	
+	private Date newestCreateAt;
+	
+	public static CategoryStatsDTO of(CategoryStats stats, String categoryName) {
+		return new CategoryStatsDTO(stats.getCategoryId(), categoryName, stats.getCount(), stats.getMinPrice(),
+				stats.getCount() > 0 ? stats.getPriceSum() / stats.getCount() : null,
+				stats.getMaxPrice(), stats.getNewestCreateAt());
+	}
+}
@@ -0,0 +1,19 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Resized copy of an image, small enough to be kept in memory
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageVariantDTO {
+
+	// Id of the variant in GridFS, it is its ETag
+	private String id;
+	
+	private String contentType;
+	
+	private byte[] content;
+}
@@ -0,0 +1,22 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import java.util.Date;
+import java.util.List;
+
+import lombok.Data;
+
+// Products to delete in bulk, the conditions that are present are combined
+@Data
+public class ProductDeleteFilterDTO {
+
+	private List<String> ids;
+	
+	private String categoryId;
+	
+	// Products created before this date
+	private Date createdBefore;
+	
+	public boolean isEmpty() {
+		return (ids == null || ids.isEmpty()) && categoryId == null && createdBefore == null;
+	}
+}
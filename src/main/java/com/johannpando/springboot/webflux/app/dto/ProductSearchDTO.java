@@ -0,0 +1,35 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import java.util.Date;
+
+import org.springframework.data.domain.Sort;
+
+import lombok.Data;
+
+// Filters of GET /api/v2/products/search, the ones that are present are combined
+@Data
+public class ProductSearchDTO {
+
+	// Words searched in the name of the product and of its category, the results are sorted by relevance
+	private String text;
+	
+	private String categoryId;
+	
+	private Double minPrice;
+	
+	private Double maxPrice;
+	
+	// Beginning of the name, case sensitive so Mongo can use the index on the name
+	private String name;
+	
+	private Date createdFrom;
+	
+	private Date createdTo;
+	
+	// One of name, price or createAt, instead of the relevance in a full-text search
+	private String sort;
+	
+	private Sort.Direction direction = Sort.Direction.ASC;
+	
+	private int limit;
+}
@@ -0,0 +1,16 @@
+package com.johannpando.springboot.webflux.app.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Product suggested by the typeahead of the search box
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductSuggestionDTO {
+
+	private String id;
+	
+	private String name;
+}
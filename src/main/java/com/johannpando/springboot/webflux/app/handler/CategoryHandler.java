@@ -0,0 +1,121 @@
+package com.johannpando.springboot.webflux.app.handler;
+
+import java.net.URI;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.dto.CategoryStatsDTO;
+import com.johannpando.springboot.webflux.app.service.ICategoryService;
+import com.johannpando.springboot.webflux.app.service.ICategoryStatsService;
+import com.johannpando.springboot.webflux.app.validation.CachedBeanValidator;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Component
+public class CategoryHandler {
+
+	@Autowired
+	private ICategoryService categoryService;
+	
+	@Autowired
+	private ICategoryStatsService categoryStatsService;
+	
+	@Autowired
+	private CachedBeanValidator validator;
+	
+	public Mono<ServerResponse> listCategories(ServerRequest request) {
+		// From memory, sorted by name
+		return ServerResponse
+				.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(categoryService.findAll(), Category.class);
+	}
+	
+	public Mono<ServerResponse> getCategory(ServerRequest request) {
+		return categoryService.findById(request.pathVariable("id"))
+			.flatMap(category -> ServerResponse
+					.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.bodyValue(category))
+			.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	public Mono<ServerResponse> createCategory(ServerRequest request) {
+		return request.bodyToMono(Category.class)
+			.flatMap(category -> {
+				List<String> errors = validate(category);
+				if (!errors.isEmpty()) {
+					return ServerResponse.badRequest().bodyValue(errors);
+				}
+				// The id is always generated by Mongo, an id in the body would replace another category
+				category.setId(null);
+				return categoryService.save(category)
+					.flatMap(saved -> ServerResponse
+							.created(URI.create("/api/v2/categories/".concat(saved.getId())))
+							.contentType(MediaType.APPLICATION_JSON)
+							.bodyValue(saved));
+			});
+	}
+	
+	public Mono<ServerResponse> updateCategory(ServerRequest request) {
+		String id = request.pathVariable("id");
+		return request.bodyToMono(Category.class)
+			.flatMap(category -> {
+				List<String> errors = validate(category);
+				if (!errors.isEmpty()) {
+					return ServerResponse.badRequest().bodyValue(errors);
+				}
+				// Only an existing category is updated, a PUT does not create categories with the ids of the clients
+				if (!categoryService.exists(id)) {
+					return ServerResponse.notFound().build();
+				}
+				category.setId(id);
+				return categoryService.save(category)
+					.flatMap(saved -> ServerResponse
+							.ok()
+							.contentType(MediaType.APPLICATION_JSON)
+							.bodyValue(saved));
+			});
+	}
+	
+	public Mono<ServerResponse> deleteCategory(ServerRequest request) {
+		String id = request.pathVariable("id");
+		return categoryService.delete(id)
+			.flatMap(deleted -> deleted ? ServerResponse.noContent().build() : ServerResponse.notFound().build())
+			// The products of the category have to be moved or deleted first
+			.onErrorResume(DataIntegrityViolationException.class, e -> ServerResponse.status(HttpStatus.CONFLICT)
+					.bodyValue(List.of(e.getMessage())));
+	}
+	
+	public Mono<ServerResponse> stats(ServerRequest request) {
+		// The rollup by default, one document by category; "live" groups the products now
+		String source = request.queryParam("source").orElse("rollup");
+		Flux<CategoryStatsDTO> stats;
+		if ("rollup".equals(source)) {
+			stats = categoryStatsService.findAll();
+		} else if ("live".equals(source)) {
+			stats = categoryStatsService.aggregate();
+		} else {
+			return ServerResponse.badRequest().bodyValue(List.of("The parameter source must be rollup or live"));
+		}
+		return ServerResponse
+				.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(stats, CategoryStatsDTO.class);
+	}
+	
+	private List<String> validate(Category category) {
+		return validator.fieldErrors(category).stream()
+				.map(fieldError -> "The field error " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+				.toList();
+	}
+}
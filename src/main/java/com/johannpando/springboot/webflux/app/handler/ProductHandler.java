@@ -1,52 +1,311 @@
 package com.johannpando.springboot.webflux.app.handler;
 
 import java.net.URI;
-import java.util.Base64;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Component;
-import org.springframework.validation.BeanPropertyBindingResult;
-import org.springframework.validation.Errors;
-import org.springframework.validation.Validator;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.FieldError;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import com.johannpando.springboot.webflux.app.codec.Base64DataBufferDecoder;
+import com.johannpando.springboot.webflux.app.codec.GzipDataBuffers;
 import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.document.ProductFields;
+import com.johannpando.springboot.webflux.app.dto.BulkItemResultDTO;
+import com.johannpando.springboot.webflux.app.dto.CatalogChangeDTO;
 import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+import com.johannpando.springboot.webflux.app.service.CatalogChangeFeed;
+import com.johannpando.springboot.webflux.app.service.CatalogVersion;
+import com.johannpando.springboot.webflux.app.service.ICatalogTransferService;
+import com.johannpando.springboot.webflux.app.service.IProductImageService;
 import com.johannpando.springboot.webflux.app.service.IProductService;
+import com.johannpando.springboot.webflux.app.service.IProductThumbnailService;
+import com.johannpando.springboot.webflux.app.service.ProductNameIndex;
+import com.johannpando.springboot.webflux.app.util.ETags;
+import com.johannpando.springboot.webflux.app.util.Pagination;
+import com.johannpando.springboot.webflux.app.validation.CachedBeanValidator;
 
+import reactor.core.publisher.BufferOverflowStrategy;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 
 @Component
 public class ProductHandler {
+	
+	private static final Logger log = LoggerFactory.getLogger(ProductHandler.class);
+	
+	private static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+	
+	// Name of the exported file, in UTC so two instances name the same export the same way
+	private static final DateTimeFormatter EXPORT_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
 
 	@Autowired
 	private IProductService productService;
 	
 	@Autowired
-	private Validator validator;
+	private IProductImageService productImageService;
+	
+	@Autowired
+	private IProductThumbnailService productThumbnailService;
+	
+	@Autowired
+	private ProductNameIndex productNameIndex;
+	
+	@Autowired
+	private CatalogVersion catalogVersion;
+	
+	@Autowired
+	private CatalogChangeFeed catalogChangeFeed;
+	
+	@Autowired
+	private ICatalogTransferService catalogTransferService;
+	
+	@Autowired
+	private CachedBeanValidator validator;
+	
+	@Value("${app.products.page.default-limit}")
+	private int defaultLimit;
+	
+	@Value("${app.products.page.max-limit}")
+	private int maxLimit;
+	
+	@Value("${app.products.stream.prefetch}")
+	private int streamPrefetch;
+	
+	@Value("${app.products.typeahead.default-limit}")
+	private int typeaheadLimit;
+	
+	@Value("${app.images.cache-max-age}")
+	private Duration imageMaxAge;
+	
+	@Value("${app.changes.client-buffer}")
+	private int changesBuffer;
+	
+	@Value("${app.changes.heartbeat}")
+	private Duration changesHeartbeat;
+	
+	@Value("${app.products.bulk.batch-size}")
+	private int bulkBatchSize;
+	
+	@Value("${app.products.bulk.concurrency}")
+	private int bulkConcurrency;
+	
+	// Decompressed size of an import, a small gzip body may expand to much more than what is sent
+	@Value("${app.catalog.transfer.max-import-size}")
+	private DataSize maxImportSize;
 	
 	public Mono<ServerResponse> listAllProducts(ServerRequest request) {
+		String afterId;
+		int limit;
+		Set<String> fields;
+		try {
+			// The cursor is the one returned in the previous page, without cursor we start from the beginning
+			afterId = request.queryParam("cursor").map(Pagination::decodeCursor).orElse(null);
+			limit = Pagination.resolveLimit(request.queryParam("limit").map(Integer::valueOf).orElse(null), defaultLimit, maxLimit);
+			// Without "fields" the listing only reads the summary of each product
+			fields = request.queryParam("fields").map(ProductFields::parse).orElse(ProductFields.SUMMARY);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		
+		String eTag = catalogVersion.eTag();
+		// We ask for one more product to know if there is a next page without counting the collection
+		Mono<ServerResponse> page = productService.findPage(afterId, limit + 1, fields)
+			.collectList()
+			.flatMap(products -> {
+				ServerResponse.BodyBuilder response = ServerResponse
+						.ok() // Indicate a successful response
+						.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
+						.eTag(eTag)
+						.cacheControl(CacheControl.noCache()); // The clients revalidate every time, usually with a 304
+				if (products.size() > limit) {
+					products = products.subList(0, limit);
+					response.header(Pagination.NEXT_CURSOR_HEADER, Pagination.encodeCursor(products.get(limit - 1).getId()));
+				}
+				return response.bodyValue(products); // Set the response body with the page of products
+			});
+		// Nothing was written since the client read this page: 304 without going to Mongo
+		return request.checkNotModified(eTag).switchIfEmpty(page);
+	}
+	
+	public Mono<ServerResponse> streamProducts(ServerRequest request) {
+		Set<String> fields;
+		try {
+			fields = request.queryParam("fields").map(ProductFields::parse).orElse(ProductFields.SUMMARY);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		
+		// Each product is written as soon as it arrives from Mongo, the demand of the client drives the cursor
+		Flux<Product> products = productService.streamAll(streamPrefetch, fields);
+		
+		boolean eventStream = request.headers().accept().stream()
+				.anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM));
+		if (eventStream) {
+			return ServerResponse
+					.ok()
+					.contentType(MediaType.TEXT_EVENT_STREAM) // One event per product
+					.body(products.map(p -> ServerSentEvent.builder(p).id(p.getId()).event("product").build()), ServerSentEvent.class);
+		}
+		return ServerResponse
+				.ok()
+				.contentType(MediaType.APPLICATION_NDJSON) // One JSON product per line
+				.body(products, Product.class);
+	}
+	
+	public Mono<ServerResponse> streamChanges(ServerRequest request) {
+		// Without "collection" the client receives the changes of the products and of the categories
+		Set<String> collections = request.queryParam("collection")
+				.map(collection -> Set.of(collection.split(",")))
+				.orElse(Set.of(CatalogChangeFeed.PRODUCTS, CatalogChangeFeed.CATEGORIES));
+		
+		Flux<ServerSentEvent<CatalogChangeDTO>> changes = catalogChangeFeed.changes()
+			.filter(change -> collections.contains(change.getCollection()))
+			// A slow client loses its oldest changes, the feed and the other clients never wait for it
+			.onBackpressureBuffer(changesBuffer, change -> log.debug("Change of " + change.getId() + " dropped for a slow client"), BufferOverflowStrategy.DROP_OLDEST)
+			.map(change -> ServerSentEvent.builder(change).event(change.getOperation()).build());
+		// A comment from time to time, so the proxies do not close a connection without changes
+		Flux<ServerSentEvent<CatalogChangeDTO>> heartbeats = Flux.interval(changesHeartbeat)
+			.map(tick -> ServerSentEvent.<CatalogChangeDTO>builder().comment("heartbeat").build());
+		
+		return ServerResponse
+				.ok()
+				.contentType(MediaType.TEXT_EVENT_STREAM)
+				.body(Flux.merge(changes, heartbeats), ServerSentEvent.class);
+	}
+	
+	public Mono<ServerResponse> searchProducts(ServerRequest request) {
+		ProductSearchDTO search = new ProductSearchDTO();
+		Set<String> fields;
+		try {
+			search.setText(request.queryParam("q").filter(q -> !q.isBlank()).orElse(null));
+			search.setCategoryId(request.queryParam("category").orElse(null));
+			search.setMinPrice(request.queryParam("minPrice").map(Double::valueOf).orElse(null));
+			search.setMaxPrice(request.queryParam("maxPrice").map(Double::valueOf).orElse(null));
+			search.setName(request.queryParam("name").orElse(null));
+			// The dates are ISO-8601 instants, e.g. 2024-07-18T00:00:00Z
+			search.setCreatedFrom(request.queryParam("createdFrom").map(Instant::parse).map(Date::from).orElse(null));
+			search.setCreatedTo(request.queryParam("createdTo").map(Instant::parse).map(Date::from).orElse(null));
+			search.setSort(request.queryParam("sort").orElse(null));
+			if (search.getSort() != null && !ProductFields.SORTABLE.contains(search.getSort())) {
+				throw new IllegalArgumentException("The products can not be sorted by " + search.getSort());
+			}
+			request.queryParam("direction").map(Sort.Direction::fromString).ifPresent(search::setDirection);
+			search.setLimit(Pagination.resolveLimit(request.queryParam("limit").map(Integer::valueOf).orElse(null), defaultLimit, maxLimit));
+			fields = request.queryParam("fields").map(ProductFields::parse).orElse(ProductFields.SUMMARY);
+		} catch (IllegalArgumentException | DateTimeParseException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		
+		// The products are written as they come from the cursor, the most relevant first when there is a text
+		String eTag = catalogVersion.eTag();
+		return request.checkNotModified(eTag).switchIfEmpty(Mono.defer(() -> ServerResponse
+			.ok()
+			.contentType(MediaType.APPLICATION_JSON)
+			.eTag(eTag)
+			.cacheControl(CacheControl.noCache())
+			.body(productService.search(search, fields), Product.class)));
+	}
+	
+	public Mono<ServerResponse> typeahead(ServerRequest request) {
+		String prefix = request.queryParam("prefix").orElse("");
+		int limit;
+		try {
+			limit = Pagination.resolveLimit(request.queryParam("limit").map(Integer::valueOf).orElse(null), typeaheadLimit, maxLimit);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		if (prefix.isBlank()) {
+			return ServerResponse.badRequest().bodyValue(List.of("The prefix must not be empty"));
+		}
+		// Served from memory, Mongo is not queried on every keystroke
 		return ServerResponse
-				.ok() // Indicate a successful response
-				.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
-				.body(productService.findAll(), Product.class); // Set the response body with the list of products
+			.ok()
+			.contentType(MediaType.APPLICATION_JSON)
+			.bodyValue(productNameIndex.suggest(prefix, limit));
 	}
 	
 	public Mono<ServerResponse> getProductById(ServerRequest request) {
 		// Extract the 'id' path variable from the request
 		String productId = request.pathVariable("id");
 		
-		return productService.findById(productId) // Fin the product by ID
-			.flatMap(p -> 
-				ServerResponse
-					.ok() // Indicate a successful response
-					.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
-					.bodyValue(p) // Set the response with the found product					
-			).switchIfEmpty(ServerResponse.notFound().build()); // If the product is not found, return a 404 response
+		Set<String> fields;
+		try {
+			fields = request.queryParam("fields").map(ProductFields::parse).orElse(ProductFields.ALL);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		
+		return productService.findById(productId, fields) // Fin the product by ID, reading only the requested fields
+			.flatMap(p -> {
+				// The version to send back in If-Match, and the date of the last write
+				String eTag = p.getVersion() != null ? ETags.of(p.getVersion()) : null;
+				Instant lastModified = p.getUpdatedAt() != null ? p.getUpdatedAt().toInstant() : null;
+				// The client already has this version: 304 without serializing the product
+				return notModified(request, lastModified, eTag).switchIfEmpty(Mono.defer(() -> {
+					ServerResponse.BodyBuilder response = ServerResponse
+						.ok() // Indicate a successful response
+						.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
+						.cacheControl(CacheControl.noCache());
+					if (eTag != null) {
+						response.eTag(eTag);
+					}
+					if (lastModified != null) {
+						response.lastModified(lastModified);
+					}
+					return response.bodyValue(p); // Set the response with the found product
+				}));
+			}).switchIfEmpty(ServerResponse.notFound().build()); // If the product is not found, return a 404 response
+	}
+	
+	// A 304 when the validators of the request match, empty otherwise
+	private static Mono<ServerResponse> notModified(ServerRequest request, Instant lastModified, String eTag) {
+		if (eTag != null && lastModified != null) {
+			return request.checkNotModified(lastModified, eTag);
+		}
+		if (eTag != null) {
+			return request.checkNotModified(eTag);
+		}
+		return lastModified != null ? request.checkNotModified(lastModified) : Mono.empty();
 	}
 	
 	public Mono<ServerResponse> createProduct(ServerRequest request) {
@@ -58,24 +317,25 @@ public class ProductHandler {
 		return dtoMono.flatMap(dto -> {
 			Product p = dto.getProduct();
 			
-			Errors errors = new BeanPropertyBindingResult(dto, ImageProductDTO.class.getName());
-			validator.validate(dto, errors);
-			
-			if (errors.hasErrors()) {
-				return Flux.fromIterable(errors.getFieldErrors())
-					.map(fieldError -> "The field error " + fieldError.getField() + " " + fieldError.getDefaultMessage())
-					.collectList()
-					.flatMap(list -> ServerResponse.badRequest().bodyValue(list));
+			List<String> errors = validate(dto);
+			if (!errors.isEmpty()) {
+				return ServerResponse.badRequest().bodyValue(errors);
 			} else {
-				if (dto.getImageProduct() != null) {
-					byte[] imageDecode = Base64.getDecoder().decode(dto.getImageProduct()); // Decode the base64 image
-					p.setImage(imageDecode); // Set the decoded image to the product
-				}
-				
 				if (p.getCreateAt() == null) {
 					p.setCreateAt(new Date());
 				}
-				return productService.save(p)
+				
+				Mono<Product> productMono = Mono.just(p);
+				if (dto.getImageProduct() != null) {
+					// The image is stored in GridFS and the product only keeps its id
+					productMono = productImageService.storeBase64(dto.getImageProduct(), p.getName())
+						.map(imageId -> {
+							p.setImageId(imageId);
+							return p;
+						});
+				}
+				return productMono
+					.flatMap(productService::save)
 					// We need to response with Mono<ServerResponse>
 					.flatMap(pdb -> 
 						ServerResponse
@@ -83,72 +343,400 @@ public class ProductHandler {
 							.created(URI.create("/api/v2/product/".concat(pdb.getId())))
 							.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
 							.bodyValue(pdb) // Set the response body with the saved product
-					);
+					)
+					// The image is not valid Base64
+					.onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())))
+					.onErrorResume(DataBufferLimitException.class, e -> imageTooLarge());
 			}
 		});
 	}
 	
+	public Mono<ServerResponse> uploadImage(ServerRequest request) {
+		String productId = request.pathVariable("id");
+		
+		return productService.findById(productId)
+			.flatMap(p -> request.multipartData()
+				.mapNotNull(parts -> parts.getFirst("file"))
+				.ofType(FilePart.class)
+				.flatMap(file -> {
+					String contentType = file.headers().getContentType() != null 
+							? file.headers().getContentType().toString() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+					// The content of the part is written to GridFS chunk by chunk
+					return productImageService.store(file.content(), file.filename(), contentType);
+				})
+				.flatMap(imageId -> productService.replaceImage(p, imageId))
+				.flatMap(saved -> ServerResponse
+					.created(URI.create("/api/v2/products/".concat(saved.getId()).concat("/image")))
+					.contentType(MediaType.APPLICATION_JSON)
+					.bodyValue(saved))
+				// Without a "file" part there is nothing to store
+				.switchIfEmpty(ServerResponse.badRequest().bodyValue(List.of("The field error file must not be null")))
+				// The same limit as the Base64 upload, the part is never read past it
+				.onErrorResume(DataBufferLimitException.class, e -> imageTooLarge())
+			)
+			.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	// The URL of the image of a product does not change when a new image is uploaded, so it is cached for a while only
+	private CacheControl imageCacheControl() {
+		return CacheControl.maxAge(imageMaxAge).cachePublic();
+	}
+	
+	// The thumbnails are small and kept in memory, they are sent whole
+	private Mono<ServerResponse> getThumbnail(ServerRequest request, String productId, int size) {
+		return productService.findById(productId)
+			.filter(p -> p.getImageId() != null)
+			.flatMap(p -> productThumbnailService.findThumbnail(p.getImageId(), size))
+			.flatMap(thumbnail -> {
+				// Like the original, a thumbnail is never modified
+				String eTag = "\"" + thumbnail.getId() + "\"";
+				if (request.headers().header(HttpHeaders.IF_NONE_MATCH).contains(eTag)) {
+					return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(imageCacheControl()).build();
+				}
+				return ServerResponse.ok()
+						.contentType(MediaType.parseMediaType(thumbnail.getContentType()))
+						.contentLength(thumbnail.getContent().length)
+						.eTag(eTag)
+						.cacheControl(imageCacheControl())
+						.bodyValue(thumbnail.getContent());
+			})
+			// No product, no image, or an image that is not a picture
+			.switchIfEmpty(ServerResponse.notFound().build())
+			// Not one of the sizes
+			.onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())))
+			// The thumbnail scheduler is saturated
+			.onErrorResume(RejectedExecutionException.class, e -> ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, "1")
+					.build());
+	}
+	
+	public Mono<ServerResponse> uploadBase64Image(ServerRequest request) {
+		String productId = request.pathVariable("id");
+		
+		// With a Content-Length, an oversized image is rejected before reading a single byte of it
+		long contentLength = request.headers().contentLength().orElse(-1);
+		if (Base64DataBufferDecoder.decodedLength(contentLength) > productImageService.getMaxImageSize()) {
+			return imageTooLarge();
+		}
+		
+		return productService.findById(productId)
+			// The Base64 body is decoded and written to GridFS while it arrives
+			.flatMap(p -> productImageService.storeBase64(request.bodyToFlux(DataBuffer.class), p.getName())
+				.flatMap(imageId -> productService.replaceImage(p, imageId))
+				.flatMap(saved -> ServerResponse
+					.created(URI.create("/api/v2/products/".concat(saved.getId()).concat("/image")))
+					.contentType(MediaType.APPLICATION_JSON)
+					.bodyValue(saved)))
+			.switchIfEmpty(ServerResponse.notFound().build())
+			// Without Content-Length, the upload stops as soon as the decoded image goes over the limit
+			.onErrorResume(DataBufferLimitException.class, e -> imageTooLarge())
+			.onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())));
+	}
+	
+	private Mono<ServerResponse> imageTooLarge() {
+		return ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE)
+			.bodyValue(List.of("The image exceeds the maximum size of " + productImageService.getMaxImageSize() + " bytes"));
+	}
+	
+	public Mono<ServerResponse> getImage(ServerRequest request) {
+		String productId = request.pathVariable("id");
+		
+		Integer size;
+		try {
+			size = request.queryParam("size").map(Integer::valueOf).orElse(null);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		if (size != null) {
+			return getThumbnail(request, productId, size);
+		}
+		
+		return productService.findById(productId)
+			.filter(p -> p.getImageId() != null)
+			.flatMap(p -> productImageService.findById(p.getImageId()))
+			.flatMap(resource -> resource.getGridFSFile()
+				.flatMap(file -> {
+					// GridFS files are never modified, a new image gets a new id, so the id is a strong ETag
+					String eTag = "\"" + resource.getFileId() + "\"";
+					if (request.headers().header(HttpHeaders.IF_NONE_MATCH).contains(eTag)) {
+						return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(imageCacheControl()).build();
+					}
+					
+					long length = file.getLength();
+					// GridFS keeps the content type given on upload in the metadata of the file
+					String storedContentType = file.getMetadata() != null ? file.getMetadata().getString("_contentType") : null;
+					MediaType contentType = storedContentType != null 
+							? MediaType.parseMediaType(storedContentType) : MediaType.APPLICATION_OCTET_STREAM;
+					List<HttpRange> ranges = request.headers().range();
+					
+					// We only honour a single range, the specification allows to answer with the full content otherwise
+					if (ranges.size() == 1) {
+						long start;
+						long end;
+						try {
+							start = ranges.get(0).getRangeStart(length);
+							end = ranges.get(0).getRangeEnd(length);
+						} catch (IllegalArgumentException e) {
+							return ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+									.header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+									.build();
+						}
+						// Skip the chunks before the range and stop reading as soon as the range is complete
+						Flux<DataBuffer> content = DataBufferUtils.takeUntilByteCount(
+								DataBufferUtils.skipUntilByteCount(resource.getDownloadStream(), start), end - start + 1);
+						return ServerResponse.status(HttpStatus.PARTIAL_CONTENT)
+								.contentType(contentType)
+								.contentLength(end - start + 1)
+								.eTag(eTag)
+								.cacheControl(imageCacheControl())
+								.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+								.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length)
+								.body(BodyInserters.fromDataBuffers(content));
+					}
+					
+					return ServerResponse.ok()
+							.contentType(contentType)
+							.contentLength(length)
+							.eTag(eTag)
+							.cacheControl(imageCacheControl())
+							.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+							.body(BodyInserters.fromDataBuffers(resource.getDownloadStream()));
+				}))
+			.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	public Mono<ServerResponse> bulkProducts(ServerRequest request) {
+		// The body is a NDJSON stream of ImageProductDTO, decoded line by line
+		Flux<BulkItemResultDTO> results = request.bodyToFlux(ImageProductDTO.class)
+			.index()
+			.buffer(bulkBatchSize)
+			// A few batches are written at the same time, the results keep the order of the request
+			.flatMapSequential(this::writeBatch, bulkConcurrency);
+		
+		return ServerResponse
+				.ok()
+				.contentType(MediaType.APPLICATION_NDJSON) // One result per line, sent as soon as its batch is written
+				.body(results, BulkItemResultDTO.class);
+	}
+	
+	private Flux<BulkItemResultDTO> writeBatch(List<Tuple2<Long, ImageProductDTO>> batch) {
+		List<BulkItemResultDTO> rejected = new ArrayList<>();
+		List<Tuple2<Long, ImageProductDTO>> valid = new ArrayList<>();
+		
+		for (Tuple2<Long, ImageProductDTO> item : batch) {
+			List<String> messages = validate(item.getT2());
+			if (!messages.isEmpty()) {
+				rejected.add(new BulkItemResultDTO(item.getT1(), null, BulkItemResultDTO.INVALID, messages));
+			} else {
+				valid.add(item);
+			}
+		}
+		
+		return Flux.fromIterable(valid)
+			// The images are stored in GridFS before the products reference them, a bad image only fails its product
+			.concatMap(item -> {
+				Product p = item.getT2().getProduct();
+				if (item.getT2().getImageProduct() == null) {
+					return Mono.just(item);
+				}
+				return productImageService.storeBase64(item.getT2().getImageProduct(), p.getName())
+					.map(imageId -> {
+						p.setImageId(imageId);
+						return item;
+					})
+					.onErrorResume(e -> {
+						rejected.add(new BulkItemResultDTO(item.getT1(), p.getId(), BulkItemResultDTO.FAILED, List.of(e.getMessage())));
+						return Mono.empty();
+					});
+			})
+			.collectList()
+			.flatMapMany(items -> {
+				List<Product> products = items.stream().map(item -> item.getT2().getProduct()).toList();
+				// The status depends on the id before the write, the DAO assigns the ids of the new products
+				List<String> statuses = products.stream()
+						.map(p -> p.getId() == null ? BulkItemResultDTO.CREATED : BulkItemResultDTO.UPSERTED)
+						.toList();
+				
+				Mono<Map<Integer, String>> write = products.isEmpty() ? Mono.just(Map.of()) : productService.bulkSave(products)
+						// The images stored for this batch are only kept for the products that were written
+						.onErrorResume(e -> productImageService.deleteAll(storedImages(items, i -> true)).then(Mono.error(e)))
+						.flatMap(failures -> productImageService.deleteAll(storedImages(items, failures::containsKey)).thenReturn(failures));
+				return write.flatMapIterable(failures -> {
+					List<BulkItemResultDTO> results = new ArrayList<>(rejected);
+					for (int i = 0; i < items.size(); i++) {
+						String failure = failures.get(i);
+						results.add(failure == null 
+								? new BulkItemResultDTO(items.get(i).getT1(), products.get(i).getId(), statuses.get(i), null)
+								: new BulkItemResultDTO(items.get(i).getT1(), products.get(i).getId(), BulkItemResultDTO.FAILED, List.of(failure)));
+					}
+					results.sort(Comparator.comparingLong(BulkItemResultDTO::getIndex));
+					return results;
+				});
+			});
+	}
+	
+	// The ids of the images stored for the given items of the batch
+	private static List<String> storedImages(List<Tuple2<Long, ImageProductDTO>> items, IntPredicate selected) {
+		return IntStream.range(0, items.size())
+				.filter(i -> items.get(i).getT2().getImageProduct() != null && selected.test(i))
+				.mapToObj(i -> items.get(i).getT2().getProduct().getImageId())
+				.toList();
+	}
+	
+	public Mono<ServerResponse> exportCatalog(ServerRequest request) {
+		String images = request.queryParam("images").orElse("omit");
+		if (!"omit".equals(images) && !"base64".equals(images)) {
+			return ServerResponse.badRequest().bodyValue(List.of("The parameter images must be omit or base64"));
+		}
+		
+		DataBufferFactory bufferFactory = request.exchange().getResponse().bufferFactory();
+		// The NDJSON is compressed while it is encoded, neither of them is ever held in memory
+		Flux<DataBuffer> body = GzipDataBuffers.compress(
+				catalogTransferService.export("base64".equals(images), bufferFactory), bufferFactory);
+		String filename = "catalog-" + EXPORT_TIMESTAMP.format(Instant.now()) + ".ndjson.gz";
+		return ServerResponse
+				.ok()
+				.contentType(GZIP)
+				.header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+				.body(BodyInserters.fromDataBuffers(body));
+	}
+	
+	public Mono<ServerResponse> importCatalog(ServerRequest request) {
+		// The file of an export as it is, or the NDJSON without compression
+		boolean gzip = request.headers().contentType().map(GZIP::isCompatibleWith).orElse(false)
+				|| request.headers().header(HttpHeaders.CONTENT_ENCODING).contains("gzip");
+		Flux<DataBuffer> body = request.bodyToFlux(DataBuffer.class);
+		
+		// The lines before a broken one have already been imported, importing the file again is an upsert
+		return catalogTransferService.importCatalog(gzip ? GzipDataBuffers.decompress(body, maxImportSize.toBytes()) : body)
+			.flatMap(result -> ServerResponse
+					.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.bodyValue(result))
+			.onErrorResume(DecodingException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())))
+			// Not gzip, or a truncated or corrupted gzip
+			.onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())))
+			.onErrorResume(DataBufferLimitException.class, e -> ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE)
+					// A line over the limit of the decoder, or the whole decompressed catalog over max-import-size
+					.bodyValue(List.of("The catalog is too large: " + e.getMessage())));
+	}
+	
 	public Mono<ServerResponse> updatedProduct(ServerRequest request) {
 		// Get the product from request
 		Mono<Product> productMono = request.bodyToMono(Product.class);
 		// Extract the 'id' path variable from the request
 		String productId = request.pathVariable("id");
 		
+		Long expectedVersion;
+		try {
+			expectedVersion = ifMatchVersion(request);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		
 		return productMono
 			.flatMap(pm -> {
-				Errors errors = new BeanPropertyBindingResult(pm, Product.class.getName());
-				validator.validate(pm, errors);
-				
-				if (errors.hasErrors()) {
-					return Flux.fromIterable(errors.getFieldErrors())
-						.map(fieldError -> "The field error " + fieldError.getField() + " " + fieldError.getDefaultMessage())
-						.collectList()
-						.flatMap(list -> ServerResponse.badRequest().bodyValue(list));
+				List<String> errors = validate(pm);
+				if (!errors.isEmpty()) {
+					return ServerResponse.badRequest().bodyValue(errors);
 				} else {
 					// If the product it is not found, it returns a Mono.empty()
-					Mono<Product> productFromBBDD = productService.findById(productId);
-							
-					// We combined the product from the BBDD and the product from request
-					return productFromBBDD.zipWith(productMono, (db, req) ->{
-						db.setName(req.getName());
-						db.setCategory(req.getCategory());
-						db.setPrice(req.getPrice());
-						return db;
-					})
-					// Now, we proceed to save the product
-					.flatMap(p ->
-						ServerResponse
-						// We redirect to the product detail through product id
-						.created(URI.create("/api/v2/product/".concat(p.getId())))
-						.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
-						// We save the product
-						.body(productService.save(p), Product.class)
-					)
-					// If the product it is not found, "productFromBBDD" return a Mono.empty, so execute this line
-					.switchIfEmpty(ServerResponse.notFound().build());
+					return productService.findById(productId)
+						.flatMap(db -> {
+							// The client modified an older version of the product
+							if (expectedVersion != null && !expectedVersion.equals(db.getVersion())) {
+								return preconditionFailed(productId);
+							}
+							// We combined the product from the BBDD and the product from request, which is already decoded
+							db.setName(pm.getName());
+							db.setCategory(pm.getCategory());
+							db.setPrice(pm.getPrice());
+							// Now, we proceed to save the product
+							return productService.save(db)
+								.flatMap(p ->
+									ServerResponse
+									// We redirect to the product detail through product id
+									.created(URI.create("/api/v2/product/".concat(p.getId())))
+									.contentType(MediaType.APPLICATION_JSON) // Set the response content type to JSON
+									.eTag(ETags.of(p.getVersion()))
+									.bodyValue(p)
+								);
+						})
+						// Someone else saved the product between our read and our save
+						.onErrorResume(OptimisticLockingFailureException.class, e -> preconditionFailed(productId))
+						// If the product it is not found, "productFromBBDD" return a Mono.empty, so execute this line
+						.switchIfEmpty(ServerResponse.notFound().build());
 				}
 			});
 	}
 	
+	// The messages of the invalid fields, built right away; a valid request only goes through the compiled checks
+	private List<String> validate(Object target) {
+		List<FieldError> fieldErrors = validator.fieldErrors(target);
+		if (fieldErrors.isEmpty()) {
+			return List.of();
+		}
+		return fieldErrors.stream()
+				.map(fieldError -> "The field error " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+				.toList();
+	}
+	
+	public Mono<ServerResponse> patchProduct(ServerRequest request) {
+		String productId = request.pathVariable("id");
+		
+		Long expectedVersion;
+		try {
+			expectedVersion = ifMatchVersion(request);
+		} catch (IllegalArgumentException e) {
+			return ServerResponse.badRequest().bodyValue(List.of(e.getMessage()));
+		}
+		
+		// Only the fields present in the body are modified, in a single findAndModify
+		return request.bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {})
+			.flatMap(changes -> productService.patch(productId, changes, expectedVersion))
+			.flatMap(p -> ServerResponse
+				.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.eTag(ETags.of(p.getVersion())) // The new version, for the next If-Match
+				.bodyValue(p))
+			.switchIfEmpty(ServerResponse.notFound().build())
+			.onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())))
+			.onErrorResume(OptimisticLockingFailureException.class, e -> preconditionFailed(productId));
+	}
+	
+	// The version expected by the client, null when it does not send If-Match
+	private static Long ifMatchVersion(ServerRequest request) {
+		String ifMatch = request.headers().firstHeader(HttpHeaders.IF_MATCH);
+		return ifMatch != null ? ETags.parseVersion(ifMatch) : null;
+	}
+	
+	private static Mono<ServerResponse> preconditionFailed(String productId) {
+		return ServerResponse.status(HttpStatus.PRECONDITION_FAILED)
+				.bodyValue(List.of("The product " + productId + " has been modified by someone else"));
+	}
+	
 	public Mono<ServerResponse> deleteProduct(ServerRequest request) {
 		
 		// Get the product from request
 		String productId = request.pathVariable("id");
 		
-		// If the product it is not found, it returns a Mono.empty()
-		Mono<Product> productFromBBDD = productService.findById(productId);
-		
-		return productFromBBDD
-			.flatMap(p -> 
-				productService.delete(p).
-				// The "delete" method return a Mono<Void>, 
-				// so we invoke to the "then" method in order to create the Response
-				then(ServerResponse
-					.noContent()
-					.build())
-			)
-			// If the product it is not found, "productFromBBDD" return a Mono.empty, so execute this line
-			.switchIfEmpty(ServerResponse.notFound().build());
-		
+		// A single round-trip, the product is not read before
+		return productService.deleteById(productId)
+			.flatMap(deleted -> deleted > 0 
+				? ServerResponse.noContent().build()
+				// Nothing was deleted, so the product does not exist
+				: ServerResponse.notFound().build());
+	}
+	
+	public Mono<ServerResponse> deleteProducts(ServerRequest request) {
+		return request.bodyToMono(ProductDeleteFilterDTO.class)
+			.flatMap(productService::deleteAll)
+			.flatMap(deleted -> ServerResponse
+				.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(Map.of("deleted", deleted)))
+			// Without a body there is no filter, nothing is deleted
+			.switchIfEmpty(Mono.defer(() -> ServerResponse.badRequest().bodyValue(List.of("The filter is required"))))
+			.onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest().bodyValue(List.of(e.getMessage())));
 	}
 }
@@ -0,0 +1,38 @@
+package com.johannpando.springboot.webflux.app.metrics;
+
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Timers of the reactive sequences of the services, published as app.service.* with the service and the method as tags:
+// flow.duration (subscription to completion, with the status), onNext.delay (count and rate of the elements) and requested
+@Component
+public class ReactiveMetrics {
+
+	public static final String SEQUENCE_NAME = "app.service";
+	
+	@Autowired
+	private MeterRegistry registry;
+	
+	public <T> Function<Flux<T>, Flux<T>> timedFlux(String service, String method) {
+		return flux -> flux
+			.name(SEQUENCE_NAME)
+			.tag("service", service)
+			.tag("method", method)
+			.tap(Micrometer.metrics(registry));
+	}
+	
+	public <T> Function<Mono<T>, Mono<T>> timedMono(String service, String method) {
+		return mono -> mono
+			.name(SEQUENCE_NAME)
+			.tag("service", service)
+			.tag("method", method)
+			.tap(Micrometer.metrics(registry));
+	}
+}
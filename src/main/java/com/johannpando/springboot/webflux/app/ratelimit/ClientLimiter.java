@@ -0,0 +1,49 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits of one client on one group of routes: the rate of requests and the requests in progress
+public class ClientLimiter {
+
+	private final TokenBucket bucket;
+	
+	private final int maxConcurrent;
+	
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	private final AtomicLong lastUsed;
+	
+	public ClientLimiter(RateLimitProperties.Limit limit, long now) {
+		this.bucket = new TokenBucket(limit.getPermitsPerSecond(), limit.getBurst(), now);
+		this.maxConcurrent = limit.getMaxConcurrent();
+		this.lastUsed = new AtomicLong(now);
+	}
+	
+	public long tryAcquire(long now) {
+		lastUsed.lazySet(now);
+		return bucket.tryAcquire(now);
+	}
+	
+	// 0 means no limit of requests in progress
+	public boolean tryEnter() {
+		while (true) {
+			int current = inFlight.get();
+			if (maxConcurrent > 0 && current >= maxConcurrent) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	public void exit() {
+		inFlight.decrementAndGet();
+	}
+	
+	// Nothing in progress and no request for a while, it can be forgotten
+	public boolean isIdle(long now, long idleTimeout) {
+		return inFlight.get() == 0 && now - lastUsed.get() > idleTimeout && bucket.isIdleSince(now);
+	}
+}
@@ -0,0 +1,42 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+// app.ratelimit.*, the limits are referenced by name from the routes and the controller mappings
+@Data
+@ConfigurationProperties("app.ratelimit")
+public class RateLimitProperties {
+
+	private boolean enabled = true;
+	
+	// Header with the id of the integrator, without it the client is its IP
+	private String clientHeader = "X-Client-Id";
+	
+	// A client without requests for this time is forgotten
+	private Duration idleTimeout = Duration.ofMinutes(10);
+	
+	private Duration evictionInterval = Duration.ofMinutes(1);
+	
+	// Number of independent maps of clients, the eviction sweeps them one after the other
+	private int stripes = 16;
+	
+	private Map<String, Limit> limits = new LinkedHashMap<>();
+	
+	@Data
+	public static class Limit {
+		
+		private double permitsPerSecond;
+		
+		// Requests accepted at once after a quiet period
+		private long burst = 1;
+		
+		// Requests in progress at the same time, 0 without limit
+		private int maxConcurrent;
+	}
+}
@@ -0,0 +1,55 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Routes and the name of the limit applied to them, the first rule that matches the request wins
+public class RateLimitRules {
+
+	private final List<Rule> rules = new ArrayList<>();
+	
+	// A null method matches any method
+	public RateLimitRules add(HttpMethod method, String pattern, String limit) {
+		return add(method, PathPatternParser.defaultInstance.parse(pattern), limit);
+	}
+	
+	public RateLimitRules add(HttpMethod method, PathPattern pattern, String limit) {
+		rules.add(new Rule(method, pattern, limit));
+		return this;
+	}
+	
+	public Rule find(ServerWebExchange exchange) {
+		HttpMethod method = exchange.getRequest().getMethod();
+		PathContainer path = exchange.getRequest().getPath().pathWithinApplication();
+		for (Rule rule : rules) {
+			if ((rule.method == null || rule.method.equals(method)) && rule.pattern.matches(path)) {
+				return rule;
+			}
+		}
+		return null;
+	}
+	
+	public List<String> limitNames() {
+		return rules.stream().map(Rule::getLimit).distinct().toList();
+	}
+	
+	@Getter
+	@AllArgsConstructor
+	public static class Rule {
+		
+		private final HttpMethod method;
+		
+		private final PathPattern pattern;
+		
+		private final String limit;
+	}
+}
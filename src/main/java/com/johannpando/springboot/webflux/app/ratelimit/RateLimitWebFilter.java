@@ -0,0 +1,173 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Rate and concurrency limits of every client on the routes with a rule, a client over its limits
+// gets a 429 at once instead of waiting for Mongo with everybody else
+@Component
+public class RateLimitWebFilter implements WebFilter, Ordered {
+
+	private static final Logger log = LoggerFactory.getLogger(RateLimitWebFilter.class);
+	
+	public static final String METRIC_NAME = "app.ratelimit.requests";
+	
+	// The client has to wait at least this long when it is over its requests in progress
+	private static final long CONCURRENCY_RETRY_AFTER_SECONDS = 1;
+	
+	@Autowired
+	private RateLimitProperties properties;
+	
+	// From RouterFunctionConfig and the @RateLimited controller mappings
+	@Autowired
+	private List<RateLimitRules> rules;
+	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	private RateLimiterRegistry limiters;
+	
+	// Limit name -> counters, so a request does not look them up in the registry
+	private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+	
+	private Disposable eviction;
+	
+	@PostConstruct
+	public void init() {
+		// A typo in a limit name is found at startup, not by the first request of the route
+		rules.stream().flatMap(r -> r.limitNames().stream()).distinct().forEach(name -> {
+			if (!properties.getLimits().containsKey(name)) {
+				throw new IllegalStateException("The rate limit " + name + " is not defined in app.ratelimit.limits");
+			}
+			counters.put(name, new Counters(name));
+		});
+		limiters = new RateLimiterRegistry(properties.getStripes());
+		Gauge.builder("app.ratelimit.clients", limiters, RateLimiterRegistry::size)
+			.description("Clients with a limiter in memory")
+			.register(meterRegistry);
+		
+		long idleTimeout = properties.getIdleTimeout().toNanos();
+		eviction = Flux.interval(properties.getEvictionInterval())
+			.subscribe(tick -> {
+				int evicted = limiters.evictIdle(System.nanoTime(), idleTimeout);
+				if (evicted > 0) {
+					log.debug(evicted + " idle clients have been evicted from the rate limits");
+				}
+			});
+	}
+	
+	@PreDestroy
+	public void destroy() {
+		eviction.dispose();
+	}
+	
+	// After the observation filter, so the rejected requests are in http.server.requests too
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE + 10;
+	}
+	
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		RateLimitRules.Rule rule = properties.isEnabled() ? findRule(exchange) : null;
+		if (rule == null) {
+			return chain.filter(exchange);
+		}
+		
+		String limitName = rule.getLimit();
+		RateLimitProperties.Limit limit = properties.getLimits().get(limitName);
+		Counters counter = counters.get(limitName);
+		long now = System.nanoTime();
+		// Each client has its own limits on each group of routes
+		ClientLimiter limiter = limiters.get(limitName + "|" + clientId(exchange), key -> new ClientLimiter(limit, now));
+		
+		// The requests in progress are checked first, a rejected request does not take a token
+		if (!limiter.tryEnter()) {
+			counter.concurrency.increment();
+			return reject(exchange, CONCURRENCY_RETRY_AFTER_SECONDS);
+		}
+		long wait = limiter.tryAcquire(now);
+		if (wait > 0) {
+			limiter.exit();
+			counter.rate.increment();
+			// Rounded up, the client never comes back before the token is there
+			return reject(exchange, Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+		}
+		counter.admitted.increment();
+		return chain.filter(exchange).doFinally(signal -> limiter.exit());
+	}
+	
+	private RateLimitRules.Rule findRule(ServerWebExchange exchange) {
+		for (RateLimitRules r : rules) {
+			RateLimitRules.Rule rule = r.find(exchange);
+			if (rule != null) {
+				return rule;
+			}
+		}
+		return null;
+	}
+	
+	private String clientId(ServerWebExchange exchange) {
+		String clientId = exchange.getRequest().getHeaders().getFirst(properties.getClientHeader());
+		if (clientId != null && !clientId.isBlank()) {
+			return clientId;
+		}
+		// Behind a proxy, server.forward-headers-strategy puts the address of the client here
+		InetSocketAddress address = exchange.getRequest().getRemoteAddress();
+		return address != null && address.getAddress() != null ? address.getAddress().getHostAddress() : "unknown";
+	}
+	
+	private static Mono<Void> reject(ServerWebExchange exchange, long retryAfterSeconds) {
+		ServerHttpResponse response = exchange.getResponse();
+		response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+		return response.setComplete();
+	}
+	
+	private class Counters {
+		
+		private final Counter admitted;
+		
+		private final Counter rate;
+		
+		private final Counter concurrency;
+		
+		Counters(String limit) {
+			admitted = counter(limit, "admitted");
+			rate = counter(limit, "rejected_rate");
+			concurrency = counter(limit, "rejected_concurrency");
+		}
+		
+		private Counter counter(String limit, String outcome) {
+			return Counter.builder(METRIC_NAME)
+					.description("Requests checked by the rate limits")
+					.tag("limit", limit)
+					.tag("outcome", outcome)
+					.register(meterRegistry);
+		}
+	}
+}
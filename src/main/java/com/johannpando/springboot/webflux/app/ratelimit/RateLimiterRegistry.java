@@ -0,0 +1,53 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Limiters of the clients in memory, spread over several maps so an eviction sweep
+// only walks one of them at a time while the requests keep using the others
+public class RateLimiterRegistry {
+
+	private final ConcurrentHashMap<String, ClientLimiter>[] stripes;
+	
+	@SuppressWarnings("unchecked")
+	public RateLimiterRegistry(int stripes) {
+		this.stripes = new ConcurrentHashMap[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new ConcurrentHashMap<>();
+		}
+	}
+	
+	// The get is lock-free when the client is already known
+	public ClientLimiter get(String key, Function<String, ClientLimiter> factory) {
+		ConcurrentHashMap<String, ClientLimiter> stripe = stripe(key);
+		ClientLimiter limiter = stripe.get(key);
+		return limiter != null ? limiter : stripe.computeIfAbsent(key, factory);
+	}
+	
+	// A request that got the limiter just before it is removed still uses it, the next one gets a new full bucket
+	public int evictIdle(long now, long idleTimeout) {
+		int evicted = 0;
+		for (ConcurrentHashMap<String, ClientLimiter> stripe : stripes) {
+			for (String key : stripe.keySet()) {
+				if (stripe.computeIfPresent(key, (k, limiter) -> limiter.isIdle(now, idleTimeout) ? null : limiter) == null) {
+					evicted++;
+				}
+			}
+		}
+		return evicted;
+	}
+	
+	public int size() {
+		int size = 0;
+		for (ConcurrentHashMap<String, ClientLimiter> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+	
+	private ConcurrentHashMap<String, ClientLimiter> stripe(String key) {
+		// Mixed, so the stripe does not depend on the low bits the maps use for their own tables
+		int hash = key.hashCode() * 0x9E3779B9;
+		return stripes[Math.floorMod(hash >>> 16, stripes.length)];
+	}
+}
@@ -0,0 +1,46 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket kept as the time at which the bucket will be full again (GCRA): taking a token
+// moves that time one interval forward, so the whole state is one long updated with a CAS
+public class TokenBucket {
+
+	// Nanoseconds to get one token back
+	private final long interval;
+	
+	// Nanoseconds of tokens the bucket can hold
+	private final long capacity;
+	
+	// Time at which all the tokens taken so far have been given back
+	private final AtomicLong fullAt;
+	
+	public TokenBucket(double permitsPerSecond, long burst, long now) {
+		if (permitsPerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("The rate and the burst must be positive");
+		}
+		this.interval = (long) (1_000_000_000L / permitsPerSecond);
+		this.capacity = interval * burst;
+		this.fullAt = new AtomicLong(now);
+	}
+	
+	// 0 if the token has been taken, otherwise the nanoseconds to wait for the next one
+	public long tryAcquire(long now) {
+		while (true) {
+			long current = fullAt.get();
+			long next = Math.max(current, now) + interval;
+			long wait = next - now - capacity;
+			if (wait > 0) {
+				return wait;
+			}
+			if (fullAt.compareAndSet(current, next)) {
+				return 0;
+			}
+		}
+	}
+	
+	// Full, nothing has been taken since the given time
+	public boolean isIdleSince(long time) {
+		return fullAt.get() <= time;
+	}
+}
@@ -0,0 +1,72 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+// Limit of requests in progress adjusted from their latency (AIMD): every fast request adds 1/limit,
+// so the limit grows by one per "limit" requests, and every slow or failed request multiplies it by backoffRatio.
+// When Mongo slows down the limit falls and the excess requests are rejected at once instead of queuing
+public class AdaptiveConcurrencyLimiter {
+
+	private final int minLimit;
+	
+	private final int maxLimit;
+	
+	private final double backoffRatio;
+	
+	private final long latencyThreshold;
+	
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	// Bits of the double, the limit is updated with a CAS
+	private final AtomicLong limit;
+	
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long latencyThresholdNanos) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyThreshold = latencyThresholdNanos;
+		this.limit = new AtomicLong(Double.doubleToRawLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+	}
+	
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= getLimit()) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	// dropped: the request failed because of Mongo (timeout, open circuit...)
+	public void release(long latencyNanos, boolean dropped) {
+		int current = inFlight.getAndDecrement();
+		if (dropped || latencyNanos > latencyThreshold) {
+			update(l -> Math.max(minLimit, l * backoffRatio));
+		} else if (current * 2 >= getLimit()) {
+			// Only grows while it is being used, an idle service does not earn a limit it never tried
+			update(l -> Math.min(maxLimit, l + 1 / l));
+		}
+	}
+	
+	public int getLimit() {
+		return (int) Double.longBitsToDouble(limit.get());
+	}
+	
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	private void update(DoubleUnaryOperator function) {
+		long current;
+		long next;
+		do {
+			current = limit.get();
+			next = Double.doubleToRawLongBits(function.applyAsDouble(Double.longBitsToDouble(current)));
+		} while (!limit.compareAndSet(current, next));
+	}
+}
@@ -0,0 +1,117 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+// Sheds with a 503 the API requests over the adaptive concurrency limit, before they wait for Mongo.
+// The streams (NDJSON, server-sent events, gzip transfers) last as long as the client wants, their latency says nothing of Mongo
+@Component
+public class AdaptiveConcurrencyWebFilter implements WebFilter, Ordered {
+	
+	private static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+
+	@Autowired
+	private ResilienceProperties properties;
+	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	private AdaptiveConcurrencyLimiter limiter;
+	
+	private Counter rejected;
+	
+	private List<PathPattern> excludedPaths;
+	
+	@PostConstruct
+	public void init() {
+		ResilienceProperties.Concurrency concurrency = properties.getConcurrency();
+		excludedPaths = concurrency.getExcludedPaths().stream().map(PathPatternParser.defaultInstance::parse).toList();
+		limiter = new AdaptiveConcurrencyLimiter(concurrency.getInitialLimit(), concurrency.getMinLimit(), concurrency.getMaxLimit(),
+				concurrency.getBackoffRatio(), concurrency.getLatencyThreshold().toNanos());
+		Gauge.builder("app.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+			.description("Current adaptive limit of API requests in progress")
+			.register(meterRegistry);
+		Gauge.builder("app.concurrency.in-flight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+			.description("API requests in progress")
+			.register(meterRegistry);
+		rejected = Counter.builder("app.concurrency.rejected")
+			.description("API requests shed over the adaptive limit")
+			.register(meterRegistry);
+	}
+	
+	// After the rate limits, a client over its own limits does not take a slot of the others
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE + 20;
+	}
+	
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		if (!properties.getConcurrency().isEnabled() || !isApiRequest(exchange)) {
+			return chain.filter(exchange);
+		}
+		if (!limiter.tryAcquire()) {
+			rejected.increment();
+			ServerHttpResponse response = exchange.getResponse();
+			response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+			response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+			return response.setComplete();
+		}
+		long start = System.nanoTime();
+		return chain.filter(exchange)
+			.doOnEach(signal -> {
+				if (signal.isOnError()) {
+					release(start, MongoFailures.isUnavailable(signal.getThrowable()));
+				}
+			})
+			.doFinally(signal -> {
+				if (signal != SignalType.ON_ERROR) {
+					HttpStatusCode status = exchange.getResponse().getStatusCode();
+					// A 503 written by a handler, or a request cancelled by the client (not its latency)
+					release(start, status != null && status.value() == HttpStatus.SERVICE_UNAVAILABLE.value());
+				}
+			});
+	}
+	
+	private void release(long start, boolean dropped) {
+		limiter.release(System.nanoTime() - start, dropped);
+	}
+	
+	private boolean isApiRequest(ServerWebExchange exchange) {
+		PathContainer path = exchange.getRequest().getPath().pathWithinApplication();
+		if (!path.value().startsWith("/api/") || excludedPaths.stream().anyMatch(pattern -> pattern.matches(path))) {
+			return false;
+		}
+		HttpHeaders headers = exchange.getRequest().getHeaders();
+		MediaType contentType = headers.getContentType();
+		// A body sent as a stream is read as slowly as the client sends it
+		if (contentType != null && (contentType.equalsTypeAndSubtype(MediaType.APPLICATION_NDJSON) || contentType.equalsTypeAndSubtype(GZIP))) {
+			return false;
+		}
+		return headers.getAccept().stream()
+				.noneMatch(mediaType -> mediaType.equalsTypeAndSubtype(MediaType.APPLICATION_NDJSON)
+						|| mediaType.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM)
+						|| mediaType.equalsTypeAndSubtype(GZIP));
+	}
+}
@@ -0,0 +1,32 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+
+// The failures of Mongo itself, not of the request: they open the circuit, are retried and shed the load
+public final class MongoFailures {
+
+	private MongoFailures() {
+	}
+	
+	// Slow or unreachable Mongo, the same call may succeed a moment later
+	public static boolean isTransient(Throwable e) {
+		return e instanceof TimeoutException
+				|| e instanceof DataAccessResourceFailureException
+				|| e instanceof TransientDataAccessException
+				|| e instanceof MongoSocketException
+				|| e instanceof MongoTimeoutException;
+	}
+	
+	// Mongo has not answered or has not been called, the client can try again later
+	public static boolean isUnavailable(Throwable e) {
+		return e instanceof CallNotPermittedException || isTransient(e);
+	}
+}
@@ -0,0 +1,83 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+// Timeout, circuit breaker and (for the reads) retries of the calls to the DAOs, applied with transform():
+// productDAO.findById(id).transform(guard.readMono("product.findById"))
+@Component
+public class MongoGuard {
+
+	@Autowired
+	private ResilienceProperties properties;
+	
+	@Autowired
+	private CircuitBreaker mongoCircuitBreaker;
+	
+	public <T> Function<Mono<T>, Mono<T>> readMono(String operation) {
+		Duration timeout = timeout(operation);
+		return mono -> mono
+			.timeout(timeout)
+			// The timeouts count as failures of the circuit, and a call rejected by an open circuit is not retried
+			.transform(CircuitBreakerOperator.of(mongoCircuitBreaker))
+			.retryWhen(retry());
+	}
+	
+	public <T> Function<Flux<T>, Flux<T>> readFlux(String operation) {
+		Duration timeout = timeout(operation);
+		return flux -> Flux.defer(() -> {
+			// Once an element has been sent, a retry would send it again
+			AtomicBoolean started = new AtomicBoolean();
+			return flux
+				.transform(f -> firstElementTimeout(f, timeout))
+				.transform(CircuitBreakerOperator.of(mongoCircuitBreaker))
+				.doOnNext(element -> started.lazySet(true))
+				.retryWhen(retry().filter(e -> !started.get() && MongoFailures.isTransient(e)));
+		});
+	}
+	
+	public <T> Function<Mono<T>, Mono<T>> writeMono(String operation) {
+		Duration timeout = timeout(operation);
+		return mono -> mono
+			.timeout(timeout)
+			.transform(CircuitBreakerOperator.of(mongoCircuitBreaker));
+	}
+	
+	public <T> Function<Flux<T>, Flux<T>> writeFlux(String operation) {
+		Duration timeout = timeout(operation);
+		return flux -> flux
+			.transform(f -> firstElementTimeout(f, timeout))
+			.transform(CircuitBreakerOperator.of(mongoCircuitBreaker));
+	}
+	
+	// A Flux may be long (a stream of the whole collection) and wait for a slow client,
+	// only the time to the first element says that Mongo is slow
+	private static <T> Flux<T> firstElementTimeout(Flux<T> flux, Duration timeout) {
+		return flux.timeout(Mono.delay(timeout), element -> Mono.never());
+	}
+	
+	private Duration timeout(String operation) {
+		return properties.getTimeouts().getOrDefault(operation, properties.getDefaultTimeout());
+	}
+	
+	private RetryBackoffSpec retry() {
+		ResilienceProperties.Retry retry = properties.getRetry();
+		return Retry.backoff(retry.getMaxRetries(), retry.getMinBackoff())
+				.maxBackoff(retry.getMaxBackoff())
+				.jitter(retry.getJitter())
+				.filter(MongoFailures::isTransient)
+				// The client gets the failure of Mongo, not a RetryExhaustedException
+				.onRetryExhaustedThrow((spec, signal) -> signal.failure());
+	}
+}
@@ -0,0 +1,37 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebExceptionHandler;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import reactor.core.publisher.Mono;
+
+// A slow or unreachable Mongo is a 503 with Retry-After for the clients of both stacks, not a 500.
+// Before the error handler of Spring Boot (-1)
+@Component
+@Order(-2)
+public class MongoUnavailableExceptionHandler implements WebExceptionHandler {
+
+	@Autowired
+	private ResilienceProperties properties;
+	
+	@Override
+	public Mono<Void> handle(ServerWebExchange exchange, Throwable ex) {
+		ServerHttpResponse response = exchange.getResponse();
+		if (!MongoFailures.isUnavailable(ex) || response.isCommitted()) {
+			return Mono.error(ex);
+		}
+		// With the circuit open, Mongo is not called again before it goes half-open
+		long retryAfter = ex instanceof CallNotPermittedException 
+				? Math.max(1, properties.getCircuitBreaker().getWaitDurationInOpenState().toSeconds()) : 1;
+		response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+		return response.setComplete();
+	}
+}
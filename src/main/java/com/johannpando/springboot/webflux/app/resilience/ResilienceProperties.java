@@ -0,0 +1,79 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+// app.resilience.*, timeouts, retries and circuit breaker of the Mongo calls and the adaptive concurrency limit
+@Data
+@ConfigurationProperties("app.resilience")
+public class ResilienceProperties {
+
+	// Timeout of the operations without their own timeout
+	private Duration defaultTimeout = Duration.ofSeconds(2);
+	
+	// Timeout by operation (service.method), of the whole Mono or until the first element of a Flux
+	private Map<String, Duration> timeouts = new LinkedHashMap<>();
+	
+	private Retry retry = new Retry();
+	
+	private CircuitBreaker circuitBreaker = new CircuitBreaker();
+	
+	private Concurrency concurrency = new Concurrency();
+	
+	// Only the reads are retried, a write may have been applied before it failed
+	@Data
+	public static class Retry {
+		
+		private int maxRetries = 2;
+		
+		private Duration minBackoff = Duration.ofMillis(50);
+		
+		private Duration maxBackoff = Duration.ofMillis(500);
+		
+		// Random part of every backoff, so the clients that failed together do not retry together
+		private double jitter = 0.5;
+	}
+	
+	@Data
+	public static class CircuitBreaker {
+		
+		// Percentage of failed calls (timeouts, connection errors) in the window that opens the circuit
+		private float failureRateThreshold = 50;
+		
+		private int slidingWindowSize = 50;
+		
+		private int minimumNumberOfCalls = 20;
+		
+		// Time without calls to Mongo once the circuit is open
+		private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+		
+		private int permittedCallsInHalfOpenState = 5;
+	}
+	
+	@Data
+	public static class Concurrency {
+		
+		private boolean enabled = true;
+		
+		private int initialLimit = 50;
+		
+		private int minLimit = 5;
+		
+		private int maxLimit = 500;
+		
+		// The limit is multiplied by it when a request is slower than the threshold or fails with Mongo
+		private double backoffRatio = 0.9;
+		
+		private Duration latencyThreshold = Duration.ofMillis(500);
+		
+		// Routes that are transfers rather than requests (export, import), their duration depends on the size of the catalog
+		private List<String> excludedPaths = new ArrayList<>();
+	}
+}
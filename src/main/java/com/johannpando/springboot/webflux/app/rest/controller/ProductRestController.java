@@ -1,30 +1,45 @@
 package com.johannpando.springboot.webflux.app.rest.controller;
 
 import java.net.URI;
-import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.support.WebExchangeBindException;
 
+import com.johannpando.springboot.webflux.app.codec.Base64DataBufferDecoder;
 import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.document.ProductFields;
 import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+import com.johannpando.springboot.webflux.app.ratelimit.RateLimited;
+import com.johannpando.springboot.webflux.app.service.IProductImageService;
 import com.johannpando.springboot.webflux.app.service.IProductService;
+import com.johannpando.springboot.webflux.app.util.ETags;
+import com.johannpando.springboot.webflux.app.util.Pagination;
 
 import jakarta.validation.Valid;
 import reactor.core.publisher.Flux;
@@ -39,18 +54,57 @@ public class ProductRestController {
 	@Autowired
 	private IProductService productService;
 	
+	@Autowired
+	private IProductImageService productImageService;
+	
+	@Value("${app.products.page.default-limit}")
+	private int defaultLimit;
+	
+	@Value("${app.products.page.max-limit}")
+	private int maxLimit;
+	
 	@GetMapping()
-	public Mono<ResponseEntity<Flux<Product>>> products() {
-		return Mono.just(
-			ResponseEntity.ok()
-			.contentType(MediaType.APPLICATION_JSON)
-			.body(productService.findAll())
-		);
+	@RateLimited("listing")
+	public Mono<ResponseEntity<List<Product>>> products(@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit, @RequestParam(required = false) String fields) {
+		String afterId;
+		int pageLimit;
+		Set<String> projection;
+		try {
+			afterId = cursor != null ? Pagination.decodeCursor(cursor) : null;
+			pageLimit = Pagination.resolveLimit(limit, defaultLimit, maxLimit);
+			// Without "fields" the listing only reads the summary of each product
+			projection = fields != null ? ProductFields.parse(fields) : ProductFields.SUMMARY;
+		} catch (IllegalArgumentException e) {
+			log.warn(e.getMessage());
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+		
+		// One product more than the limit tells us if there is a next page
+		return productService.findPage(afterId, pageLimit + 1, projection)
+			.collectList()
+			.map(products -> {
+				ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_JSON);
+				if (products.size() > pageLimit) {
+					products = products.subList(0, pageLimit);
+					response.header(Pagination.NEXT_CURSOR_HEADER, Pagination.encodeCursor(products.get(pageLimit - 1).getId()));
+				}
+				return response.body(products);
+			});
 	}
 	
 	@GetMapping("/{id}")
-	public Mono<ResponseEntity<Product>> product(@PathVariable String id) {
-		return productService.findById(id)
+	public Mono<ResponseEntity<Product>> product(@PathVariable String id, @RequestParam(required = false) String fields) {
+		Set<String> projection;
+		try {
+			projection = fields != null ? ProductFields.parse(fields) : ProductFields.ALL;
+		} catch (IllegalArgumentException e) {
+			log.warn(e.getMessage());
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+		
+		return productService.findById(id, projection)
 			.map(p -> ResponseEntity.ok()
 				.contentType(MediaType.APPLICATION_JSON)
 				.body(p))
@@ -66,17 +120,14 @@ public class ProductRestController {
 			product.setCreateAt(new Date());
 		}
 		
-		if (imageProductDTO != null && imageProductDTO.getImageProduct() != null) {
-			byte[] imageDecode = Base64.getDecoder().decode(imageProductDTO.getImageProduct());
-			product.setImage(imageDecode);
-		}
-		
-		return productService.save(product)
+		return withImage(product, imageProductDTO.getImageProduct())
+				.flatMap(productService::save)
 				.doOnSuccess(productSaved -> log.info("The product " + productSaved.getName() + " has been created"))
 			.map(p -> ResponseEntity.created(URI.create("api/products/".concat(p.getId())))
 					.contentType(MediaType.APPLICATION_JSON)
 				.body(p)
-			);
+			)
+			.onErrorResume(DataBufferLimitException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build()));
 	}
 	
 	@PostMapping("/valid")
@@ -91,12 +142,8 @@ public class ProductRestController {
 					product.setCreateAt(new Date());
 				}
 				
-				if (dto.getImageProduct() != null) {
-					byte[] imageDecode = Base64.getDecoder().decode(dto.getImageProduct());
-					product.setImage(imageDecode);
-				}
-				
-				return productService.save(product)
+				return withImage(product, dto.getImageProduct())
+					.flatMap(productService::save)
 					.map(p -> {
 						String successMessage = "The product" + p.getName() + " was created successfully";
 						log.info(successMessage);
@@ -109,6 +156,12 @@ public class ProductRestController {
 					});
 					
 			})
+			.onErrorResume(DataBufferLimitException.class, e -> {
+				result.put("errors", List.of(e.getMessage()));
+				result.put("timestamp", new Date());
+				result.put("status", HttpStatus.PAYLOAD_TOO_LARGE.value());
+				return Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(result));
+			})
 			// onErrorResume(t -> { ... }): Handles errors that may occur during processing.
 			.onErrorResume(t -> {
 				// Mono.just(t).cast(WebExchangeBindException.class): Converts the error to WebExchangeBindException.
@@ -130,48 +183,96 @@ public class ProductRestController {
 			});
 	}
 	
+	// The image is stored in GridFS before the product, which only keeps the id of the file
+	private Mono<Product> withImage(Product product, String base64Image) {
+		if (base64Image == null) {
+			return Mono.just(product);
+		}
+		return productImageService.storeBase64(base64Image, product.getName())
+			.map(imageId -> {
+				product.setImageId(imageId);
+				return product;
+			});
+	}
+	
+	// The Base64 body is decoded and written to GridFS while it arrives, it is never fully in memory
+	@PostMapping(path = "/{id}/image", consumes = MediaType.TEXT_PLAIN_VALUE)
+	public Mono<ResponseEntity<Product>> uploadImage(@PathVariable String id, ServerHttpRequest request) {
+		// With a Content-Length, an oversized image is rejected before reading a single byte of it
+		if (Base64DataBufferDecoder.decodedLength(request.getHeaders().getContentLength()) > productImageService.getMaxImageSize()) {
+			return Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build());
+		}
+		
+		return productService.findById(id)
+			.flatMap(p -> productImageService.storeBase64(request.getBody(), p.getName())
+				.flatMap(imageId -> productService.replaceImage(p, imageId)))
+			.map(p -> ResponseEntity.created(URI.create("api/products/".concat(p.getId()).concat("/image")))
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(p))
+			.defaultIfEmpty(ResponseEntity.notFound().build())
+			.onErrorResume(DataBufferLimitException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build()))
+			// The body is not valid Base64
+			.onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()));
+	}
+	
+	// Validated like the PUT of the handler: name, price and an existing category, otherwise 400
 	@PutMapping("/{id}")
-	public Mono<ResponseEntity<Product>> product(@RequestBody Product product, @PathVariable String id) {
+	public Mono<ResponseEntity<Product>> product(@Valid @RequestBody Product product, @PathVariable String id) {
 		return productService.findById(id)
 			.flatMap(p -> {
-				if (product.getName() != null) {
-					product.setName(product.getName());
-				}
-				if (product.getPrice() != null) {
-					p.setPrice(product.getPrice());
-				}
-				if (product.getCategory() != null) {
-					p.setCategory(product.getCategory());	
-				}
+				p.setName(product.getName());
+				p.setPrice(product.getPrice());
+				p.setCategory(product.getCategory());
 				return productService.save(p)
 					.doOnSuccess(productSaved -> log.info("The product " + productSaved.getName() + " has been updated"));
 			})
 			.map(p -> ResponseEntity.created(URI.create("api/products/".concat(p.getId())))
 					.contentType(MediaType.APPLICATION_JSON)
 				.body(p))
-			.defaultIfEmpty(ResponseEntity.notFound().build());
+			.defaultIfEmpty(ResponseEntity.notFound().build())
+			// Someone else saved the product between our read and our save
+			.onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()));
+	}
+	
+	@PatchMapping("/{id}")
+	public Mono<ResponseEntity<Product>> patchProduct(@RequestBody Map<String, Object> changes, @PathVariable String id,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+		Long expectedVersion;
+		try {
+			expectedVersion = ifMatch != null ? ETags.parseVersion(ifMatch) : null;
+		} catch (IllegalArgumentException e) {
+			log.warn(e.getMessage());
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+		
+		// Only the fields present in the body are modified, in a single findAndModify
+		return productService.patch(id, changes, expectedVersion)
+			.doOnSuccess(p -> log.info("The product {} has been patched", id))
+			.map(p -> ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.eTag(ETags.of(p.getVersion()))
+				.body(p))
+			.defaultIfEmpty(ResponseEntity.notFound().build())
+			.onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()))
+			// The product does not have the version sent in If-Match
+			.onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()));
 	}
 	
 	
 	@DeleteMapping("/{id}")
     public Mono<ResponseEntity<Void>> deleteProduct(@PathVariable String id) {
-        return productService.findById(id)
-            .flatMap(p -> {
-                log.info("Deleting product with ID {} and name {}", p.getId(), p.getName());
-                return productService.delete(p)
-                	// 	After the operation completes (then), a ‘Mono’ is returned which emits a ‘ResponseEntity’ 
-                	// with HTTP status No Content (204), indicating that the deletion was successful 
-                	// and there is no additional content in the response.
-                    .then(Mono.just(new ResponseEntity<Void>(HttpStatus.NO_CONTENT)));
-            })
-            // If the initial ‘Mono<Product>’ is empty (i.e. if the product with the specified ID is not found), 
-            // the block ‘switchIfEmpty’ is executed.
-            .switchIfEmpty(
-            	// Within switchIfEmpty, Mono.fromRunnable is used to create a Mono that executes a task 
-            	// (in this case, logging a warning that the product with the specified ID was not found). 
-            	// Mono.fromRunnable does not emit any value, it just executes the task.	
-                Mono.fromRunnable(() -> log.warn("Product with ID {} not found", id))
-                    .then(Mono.just(new ResponseEntity<Void>(HttpStatus.NOT_FOUND)))
-            );
+        // The product is deleted in a single round-trip, without reading it first
+        return productService.deleteById(id)
+            .map(deleted -> {
+                if (deleted == 0) {
+                	// Nothing was deleted, so the product with the specified ID does not exist
+                    log.warn("Product with ID {} not found", id);
+                    return new ResponseEntity<Void>(HttpStatus.NOT_FOUND);
+                }
+                log.info("Deleted product with ID {}", id);
+                // HTTP status No Content (204), indicating that the deletion was successful 
+                // and there is no additional content in the response.
+                return new ResponseEntity<Void>(HttpStatus.NO_CONTENT);
+            });
     }
 }
@@ -0,0 +1,174 @@
+package com.johannpando.springboot.webflux.app.seed;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.johannpando.springboot.webflux.app.dao.ProductIndexes;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.service.CatalogVersion;
+import com.johannpando.springboot.webflux.app.service.CategorySnapshot;
+import com.johannpando.springboot.webflux.app.service.ICategoryStatsService;
+import com.johannpando.springboot.webflux.app.service.ProductNameIndex;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+// Prepares the catalog at startup as one sequence: drop, indexes, fixtures (NDJSON, inserted in batches)
+// and the typeahead index. The readiness probe stays OUT_OF_SERVICE until it is done (SeedHealthIndicator)
+@Component
+public class CatalogSeeder {
+	
+	private static final Logger log = LoggerFactory.getLogger(CatalogSeeder.class);
+	
+	// Chunks read from the fixture files, the decoder splits them in lines
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	
+	public enum Status { PENDING, RUNNING, DONE, FAILED }
+	
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+	
+	@Autowired
+	private ProductIndexes productIndexes;
+	
+	@Autowired
+	private ProductNameIndex productNameIndex;
+	
+	@Autowired
+	private CatalogVersion catalogVersion;
+	
+	@Autowired
+	private ICategoryStatsService categoryStats;
+	
+	@Autowired
+	private CategorySnapshot categorySnapshot;
+	
+	@Autowired
+	private ResourceLoader resourceLoader;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
+	// Without seeding (production), the collections are kept and only the indexes are prepared
+	@Value("${app.seed.enabled}")
+	private boolean enabled;
+	
+	@Value("${app.seed.categories}")
+	private String categoriesLocation;
+	
+	@Value("${app.seed.products}")
+	private String productsLocation;
+	
+	@Value("${app.seed.batch-size}")
+	private int batchSize;
+	
+	@Value("${app.seed.concurrency}")
+	private int concurrency;
+	
+	private final AtomicReference<Status> status = new AtomicReference<>(Status.PENDING);
+	
+	private final Sinks.One<Void> done = Sinks.one();
+	
+	public Status getStatus() {
+		return status.get();
+	}
+	
+	// Completes when the catalog is ready, or fails with the error of the seeding
+	public Mono<Void> completion() {
+		return done.asMono();
+	}
+	
+	// Called once by the runner, the application goes on starting while the sequence runs
+	public void start() {
+		if (!status.compareAndSet(Status.PENDING, Status.RUNNING)) {
+			return;
+		}
+		long start = System.nanoTime();
+		seed().subscribe(null, e -> {
+			log.error("The catalog could not be prepared", e);
+			status.set(Status.FAILED);
+			done.tryEmitError(e);
+		}, () -> {
+			log.info("The catalog is ready in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+			status.set(Status.DONE);
+			done.tryEmitEmpty();
+		});
+	}
+	
+	private Mono<Void> seed() {
+		// Each step starts when the previous one has finished, the inserts never race the drops
+		Mono<Void> drop = enabled
+				? Mono.when(reactiveMongoTemplate.dropCollection(Category.class), reactiveMongoTemplate.dropCollection(Product.class))
+				: Mono.empty();
+		Mono<Void> fixtures = enabled ? loadCategories().flatMap(this::loadProducts) : Mono.empty();
+		return drop
+			.then(productIndexes.ensureIndexes())
+			.then(fixtures)
+			// The categories are served from memory from now on
+			.then(categorySnapshot.reload())
+			// The products were inserted without the service, the typeahead and the statistics are loaded from Mongo
+			.then(productNameIndex.load())
+			.then(categoryStats.rebuild())
+			// A listing cached by a client before the seeding is not the same catalog
+			.doOnSuccess(done -> catalogVersion.increment())
+			.then();
+	}
+	
+	// Id -> name of the categories, copied into the products for the full-text search
+	private Mono<Map<String, String>> loadCategories() {
+		return read(categoriesLocation, Category.class)
+			.buffer(batchSize)
+			.concatMap(batch -> reactiveMongoTemplate.insertAll(batch))
+			.collectMap(Category::getId, Category::getName)
+			.doOnNext(categories -> log.info(categories.size() + " categories inserted from " + categoriesLocation));
+	}
+	
+	private Mono<Void> loadProducts(Map<String, String> categories) {
+		Date now = new Date();
+		return read(productsLocation, Product.class)
+			.doOnNext(product -> {
+				if (product.getCreateAt() == null) {
+					product.setCreateAt(now);
+				}
+				product.setUpdatedAt(now);
+				product.setCategoryName(categories.get(product.getCategoryId()));
+			})
+			.buffer(batchSize)
+			// A few batches in flight, the file is read as fast as Mongo inserts it and never held in memory
+			.flatMap(batch -> reactiveMongoTemplate.insertAll(batch).count(), concurrency)
+			.reduce(0L, Long::sum)
+			.doOnNext(count -> log.info(count + " products inserted from " + productsLocation))
+			.then();
+	}
+	
+	// One JSON document per line, decoded while the file is read
+	private <T> Flux<T> read(String location, Class<T> type) {
+		Resource resource = resourceLoader.getResource(location);
+		if (!resource.exists()) {
+			log.warn("The fixture " + location + " does not exist, nothing is inserted from it");
+			return Flux.empty();
+		}
+		Jackson2JsonDecoder decoder = new Jackson2JsonDecoder(objectMapper);
+		return decoder.decode(DataBufferUtils.read(resource, DefaultDataBufferFactory.sharedInstance, READ_BUFFER_SIZE),
+				ResolvableType.forClass(type), MediaType.APPLICATION_NDJSON, null)
+			.cast(type);
+	}
+}
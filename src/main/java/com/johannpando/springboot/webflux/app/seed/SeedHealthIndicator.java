@@ -0,0 +1,24 @@
+package com.johannpando.springboot.webflux.app.seed;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// "seed" in /actuator/health and in the readiness group: no traffic until the catalog is ready
+@Component
+public class SeedHealthIndicator implements HealthIndicator {
+
+	@Autowired
+	private CatalogSeeder catalogSeeder;
+	
+	@Override
+	public Health health() {
+		CatalogSeeder.Status status = catalogSeeder.getStatus();
+		return switch (status) {
+			case DONE -> Health.up().build();
+			case FAILED -> Health.down().withDetail("status", status).build();
+			default -> Health.outOfService().withDetail("status", status).build();
+		};
+	}
+}
@@ -0,0 +1,190 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.dao.ResumeTokenStore;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.CatalogChangeDTO;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+// Changes of the products and the categories written by any instance, read from the change streams of Mongo
+// and published to the clients of the event stream and to the caches of this instance
+@Component
+public class CatalogChangeFeed {
+	
+	private static final Logger log = LoggerFactory.getLogger(CatalogChangeFeed.class);
+	
+	public static final String PRODUCTS = "products";
+	
+	public static final String CATEGORIES = "categories";
+	
+	// $changeStream is only supported on replica sets
+	private static final int NOT_A_REPLICA_SET = 40573;
+	
+	// The resume token is no longer in the oplog
+	private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+	
+	private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+	
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+	
+	@Autowired
+	private ResumeTokenStore resumeTokenStore;
+	
+	@Value("${app.changes.enabled}")
+	private boolean enabled;
+	
+	@Value("${app.changes.consumer-id}")
+	private String consumerId;
+	
+	@Value("${app.changes.token-save-interval}")
+	private Duration tokenSaveInterval;
+	
+	@Value("${app.changes.retry.min-backoff}")
+	private Duration minBackoff;
+	
+	@Value("${app.changes.retry.max-backoff}")
+	private Duration maxBackoff;
+	
+	// A subscriber that does not keep up loses the changes instead of holding back the others,
+	// every subscriber puts its own buffer in front of it
+	private final Sinks.Many<CatalogChangeDTO> sink = Sinks.many().multicast().directBestEffort();
+	
+	private Disposable subscription;
+	
+	public Flux<CatalogChangeDTO> changes() {
+		return sink.asFlux();
+	}
+	
+	// After the runners, the streams start from the current state of the collections (or from the stored tokens)
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (!enabled) {
+			log.info("The change streams are disabled, the caches only see the writes of this instance");
+			return;
+		}
+		// merge serializes the two streams, the sink is never called from two threads at the same time
+		subscription = Flux.merge(watch(PRODUCTS, Product.class), watch(CATEGORIES, Category.class))
+				.subscribe(change -> sink.tryEmitNext(change));
+	}
+	
+	@PreDestroy
+	public void stop() {
+		if (subscription != null) {
+			subscription.dispose();
+		}
+		sink.tryEmitComplete();
+	}
+	
+	private <T> Flux<CatalogChangeDTO> watch(String collection, Class<T> type) {
+		// Token of the last change read, the stream is opened again from it after an error
+		AtomicReference<BsonValue> resumeToken = new AtomicReference<>();
+	
+		Flux<ChangeStreamEvent<T>> events = Flux.defer(() -> reactiveMongoTemplate
+				.changeStream(type)
+				.withOptions(options -> {
+					// The document after an update, not only the modified fields
+					options.fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+					BsonValue token = resumeToken.get();
+					if (token != null) {
+						options.resumeAfter(token);
+					}
+				})
+				.watchCollection(collection)
+				.listen())
+			// After a drop the stream is invalidated and completes, it cannot be resumed and is opened again
+			.doOnNext(event -> resumeToken.set(event.getOperationType() == OperationType.INVALIDATE ? null : event.getResumeToken()))
+			.repeatWhen(completed -> completed.delayElements(minBackoff))
+			.retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+					.maxBackoff(maxBackoff)
+					.filter(e -> errorCode(e) != NOT_A_REPLICA_SET)
+					.doBeforeRetry(signal -> {
+						int code = errorCode(signal.failure());
+						if (code == CHANGE_STREAM_HISTORY_LOST || code == CHANGE_STREAM_FATAL_ERROR) {
+							// The changes in between are lost, the stream starts again from now
+							resumeToken.set(null);
+						}
+						log.warn("The change stream of " + collection + " has failed, it is opened again: " + signal.failure().getMessage());
+					}));
+	
+		return resumeTokenStore.find(consumerId, collection)
+			.doOnNext(resumeToken::set)
+			.retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff).maxBackoff(maxBackoff))
+			.thenMany(events.publish(shared -> Flux.merge(
+					shared.filter(event -> event.getOperationType() != OperationType.INVALIDATE)
+						.map(event -> toChange(collection, event)),
+					// The token is stored at most once per interval, after a restart the changes of the last interval
+					// may be read again (the caches only invalidate, reading a change twice does no harm)
+					shared.sample(tokenSaveInterval)
+						.concatMap(event -> saveToken(collection, event))
+						.then(Mono.<CatalogChangeDTO>empty()))))
+			.doOnSubscribe(s -> log.info("Watching the changes of " + collection))
+			.onErrorResume(e -> errorCode(e) == NOT_A_REPLICA_SET, e -> {
+				log.warn("Mongo is not a replica set, the changes of " + collection + " written by other instances are not seen");
+				return Flux.empty();
+			});
+	}
+	
+	private Mono<Void> saveToken(String collection, ChangeStreamEvent<?> event) {
+		Mono<Void> save = event.getOperationType() == OperationType.INVALIDATE
+				? resumeTokenStore.delete(consumerId, collection)
+				: resumeTokenStore.save(consumerId, collection, event.getResumeToken());
+		// A token that is not stored only means some changes are read again after a restart
+		return save.onErrorResume(e -> {
+			log.warn("The resume token of " + collection + " has not been stored: " + e.getMessage());
+			return Mono.empty();
+		});
+	}
+	
+	private static CatalogChangeDTO toChange(String collection, ChangeStreamEvent<?> event) {
+		OperationType operation = event.getOperationType();
+		return new CatalogChangeDTO(collection,
+				operation != null ? operation.getValue() : null,
+				documentId(event),
+				event.getBody(),
+				event.getTimestamp());
+	}
+	
+	private static String documentId(ChangeStreamEvent<?> event) {
+		BsonDocument key = event.getRaw() != null ? event.getRaw().getDocumentKey() : null;
+		if (key == null || !key.containsKey("_id")) {
+			return null;
+		}
+		BsonValue id = key.get("_id");
+		if (id.isObjectId()) {
+			// The ids of the documents are mapped to the hex string of the ObjectId
+			return id.asObjectId().getValue().toHexString();
+		}
+		return id.isString() ? id.asString().getValue() : id.toString();
+	}
+	
+	private static int errorCode(Throwable e) {
+		Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+		return cause instanceof MongoServerException serverException ? serverException.getCode() : -1;
+	}
+}
@@ -0,0 +1,82 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.cache.ReactiveCache;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.CatalogChangeDTO;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+
+// Keeps the caches of this instance coherent with the writes of the other instances.
+// The writes of this instance come back through the stream too, invalidating them again only costs a read from Mongo
+@Component
+public class CatalogChangeListener {
+
+	private static final Logger log = LoggerFactory.getLogger(CatalogChangeListener.class);
+	
+	@Autowired
+	private CatalogChangeFeed catalogChangeFeed;
+	
+	@Autowired
+	private ReactiveCache<Product> productCache;
+	
+	@Autowired
+	private CategorySnapshot categorySnapshot;
+	
+	@Autowired
+	private ProductNameIndex productNameIndex;
+	
+	@Autowired
+	private CatalogVersion catalogVersion;
+	
+	private Disposable subscription;
+	
+	// Subscribed before the feed starts, so no change is missed
+	@PostConstruct
+	public void subscribe() {
+		subscription = catalogChangeFeed.changes()
+				.subscribe(this::apply, e -> log.error("The caches no longer follow the changes of the catalog", e));
+	}
+	
+	@PreDestroy
+	public void dispose() {
+		subscription.dispose();
+	}
+	
+	void apply(CatalogChangeDTO change) {
+		if (CatalogChangeFeed.PRODUCTS.equals(change.getCollection())) {
+			applyToProducts(change);
+		} else {
+			applyToCategories(change);
+		}
+		// The listings cached by the clients are no longer valid either
+		catalogVersion.increment();
+	}
+	
+	private void applyToProducts(CatalogChangeDTO change) {
+		if (change.getId() == null) {
+			// drop, rename... the whole collection has changed
+			productCache.invalidateAll();
+			productNameIndex.clear();
+			return;
+		}
+		productCache.invalidate(change.getId());
+		if (change.getDocument() instanceof Product product) {
+			productNameIndex.put(product);
+		} else if ("delete".equals(change.getOperation())) {
+			productNameIndex.remove(change.getId());
+		}
+	}
+	
+	// Any change of a category, the collection is small and loaded again as a whole
+	private void applyToCategories(CatalogChangeDTO change) {
+		categorySnapshot.reload()
+			.subscribe(null, e -> log.warn("The categories could not be reloaded after a change: " + e.getMessage()));
+	}
+}
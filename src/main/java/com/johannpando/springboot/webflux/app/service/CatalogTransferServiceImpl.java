@@ -0,0 +1,225 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.FieldError;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.document.ProductFields;
+import com.johannpando.springboot.webflux.app.dto.CatalogImportResultDTO;
+import com.johannpando.springboot.webflux.app.dto.CatalogRecordDTO;
+import com.johannpando.springboot.webflux.app.metrics.ReactiveMetrics;
+import com.johannpando.springboot.webflux.app.validation.CachedBeanValidator;
+
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Service
+public class CatalogTransferServiceImpl implements ICatalogTransferService {
+	
+	private static final Logger log = LoggerFactory.getLogger(CatalogTransferServiceImpl.class);
+	
+	private static final ResolvableType RECORD_TYPE = ResolvableType.forClass(CatalogRecordDTO.class);
+	
+	// Tag of the metrics of this service
+	private static final String SERVICE = "catalogTransfer";
+	
+	@Autowired
+	private ICategoryService categoryService;
+	
+	@Autowired
+	private IProductService productService;
+	
+	@Autowired
+	private IProductImageService productImageService;
+	
+	@Autowired
+	private ReactiveMetrics metrics;
+	
+	// The same validation as the creation of a product, the category must exist
+	@Autowired
+	private CachedBeanValidator validator;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
+	@Value("${app.catalog.transfer.prefetch}")
+	private int prefetch;
+	
+	@Value("${app.catalog.transfer.batch-size}")
+	private int batchSize;
+	
+	@Value("${app.catalog.transfer.concurrency}")
+	private int concurrency;
+	
+	@Value("${app.catalog.transfer.max-errors}")
+	private int maxErrors;
+	
+	private Jackson2JsonEncoder encoder;
+	
+	private Jackson2JsonDecoder decoder;
+	
+	@PostConstruct
+	public void init() {
+		encoder = new Jackson2JsonEncoder(objectMapper);
+		decoder = new Jackson2JsonDecoder(objectMapper);
+		// A line holds a whole image in Base64 (4 bytes for every 3) besides the product
+		decoder.setMaxInMemorySize((int) Math.min(Integer.MAX_VALUE, productImageService.getMaxImageSize() * 4 / 3 + 64 * 1024));
+	}
+	
+	@Override
+	public Flux<DataBuffer> export(boolean images, DataBufferFactory bufferFactory) {
+		Flux<CatalogRecordDTO> categories = categoryService.findAll().map(CatalogRecordDTO::of);
+		// All the fields: the product comes back with its categoryId and its imageId
+		Flux<CatalogRecordDTO> products = productService.streamAll(prefetch, ProductFields.ALL)
+			// One image at a time, the cursor is not read further while it is downloaded
+			.concatMap(product -> images && product.getImageId() != null 
+					? imageBase64(product.getImageId()).map(image -> CatalogRecordDTO.of(product, image))
+						.defaultIfEmpty(CatalogRecordDTO.of(product, null))
+					: Mono.just(CatalogRecordDTO.of(product, null)), 1);
+		
+		// Each record is written as soon as it is read, the export is never held in memory
+		return encoder.encode(categories.concatWith(products), bufferFactory, RECORD_TYPE, MediaType.APPLICATION_NDJSON, null)
+			.transform(metrics.timedFlux(SERVICE, "export"));
+	}
+	
+	private Mono<String> imageBase64(String imageId) {
+		return productImageService.findById(imageId)
+			.flatMap(resource -> DataBufferUtils.join(resource.getDownloadStream()))
+			.map(buffer -> {
+				try {
+					byte[] bytes = new byte[buffer.readableByteCount()];
+					buffer.read(bytes);
+					return Base64.getEncoder().encodeToString(bytes);
+				} finally {
+					DataBufferUtils.release(buffer);
+				}
+			})
+			// A missing image does not stop the export, the product goes without it
+			.onErrorResume(e -> {
+				log.warn("The image " + imageId + " is not exported: " + e.getMessage());
+				return Mono.empty();
+			});
+	}
+	
+	@Override
+	public Mono<CatalogImportResultDTO> importCatalog(Flux<DataBuffer> ndjson) {
+		return decoder.decode(ndjson, RECORD_TYPE, MediaType.APPLICATION_NDJSON, null)
+			.cast(CatalogRecordDTO.class)
+			// The categories of an export come before the products: a run of categories is written
+			// before the products that follow it, so the products find the names of their categories
+			.windowUntilChanged(record -> record.getCategory() != null)
+			.concatMap(window -> window
+					.buffer(batchSize)
+					// A few batches in flight, the body is read as fast as Mongo writes it
+					.flatMap(this::writeBatch, concurrency))
+			.reduce(new CatalogImportResultDTO(), (total, batch) -> total.merge(batch, maxErrors))
+			.doOnNext(result -> log.info("Catalog imported: " + result.getCategories() + " categories, " 
+					+ result.getProducts() + " products, " + result.getFailed() + " failed"))
+			.transform(metrics.timedMono(SERVICE, "import"));
+	}
+	
+	private Mono<CatalogImportResultDTO> writeBatch(List<CatalogRecordDTO> batch) {
+		CatalogImportResultDTO result = new CatalogImportResultDTO();
+		List<Category> categories = new ArrayList<>();
+		List<CatalogRecordDTO> products = new ArrayList<>();
+		for (CatalogRecordDTO record : batch) {
+			if (record.getCategory() != null) {
+				categories.add(record.getCategory());
+			} else if (record.getProduct() != null) {
+				products.add(record);
+			} else {
+				result.fail("A line has neither a category nor a product");
+			}
+		}
+		return categories.isEmpty() ? writeProducts(products, result) : writeCategories(categories, result);
+	}
+	
+	private Mono<CatalogImportResultDTO> writeCategories(List<Category> categories, CatalogImportResultDTO result) {
+		// The service keeps the names copied into the products up to date
+		return Flux.fromIterable(categories)
+			.concatMap(category -> categoryService.save(category)
+				.doOnNext(saved -> result.setCategories(result.getCategories() + 1))
+				.onErrorResume(e -> {
+					result.fail("The category " + category.getId() + " has not been imported: " + e.getMessage());
+					return Mono.empty();
+				}))
+			.then(Mono.just(result));
+	}
+	
+	private static List<String> storedImages(List<CatalogRecordDTO> records, IntPredicate selected) {
+		return IntStream.range(0, records.size())
+				.filter(i -> records.get(i).getImageProduct() != null && selected.test(i))
+				.mapToObj(i -> records.get(i).getProduct().getImageId())
+				.toList();
+	}
+	
+	private Mono<CatalogImportResultDTO> writeProducts(List<CatalogRecordDTO> records, CatalogImportResultDTO result) {
+		return Flux.fromIterable(records)
+			// An invalid product is counted as failed, its image is not stored
+			.filter(record -> {
+				List<FieldError> errors = validator.fieldErrors(record.getProduct());
+				if (!errors.isEmpty()) {
+					result.fail("The product " + record.getProduct().getId() + " is not valid: " + errors.stream()
+							.map(fieldError -> "The field error " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+							.collect(Collectors.joining(", ")));
+				}
+				return errors.isEmpty();
+			})
+			// With its content the image is stored again, otherwise the product keeps the imageId of the export
+			.concatMap(record -> {
+				Product product = record.getProduct();
+				if (record.getImageProduct() == null) {
+					return Mono.just(record);
+				}
+				return productImageService.storeBase64(record.getImageProduct(), product.getName())
+					.map(imageId -> {
+						product.setImageId(imageId);
+						return record;
+					})
+					.onErrorResume(e -> {
+						result.fail("The image of the product " + product.getId() + " has not been imported: " + e.getMessage());
+						return Mono.empty();
+					});
+			})
+			.collectList()
+			.flatMap(written -> {
+				if (written.isEmpty()) {
+					return Mono.just(result);
+				}
+				List<Product> products = written.stream().map(CatalogRecordDTO::getProduct).toList();
+				return productService.bulkSave(products)
+					// The images stored by the import are only kept for the products that were written
+					.onErrorResume(e -> productImageService.deleteAll(storedImages(written, i -> true)).then(Mono.error(e)))
+					.flatMap(failures -> productImageService.deleteAll(storedImages(written, failures::containsKey)).thenReturn(failures))
+					.map(failures -> {
+						result.setProducts(result.getProducts() + products.size() - failures.size());
+						for (Map.Entry<Integer, String> failure : failures.entrySet()) {
+							result.fail("The product " + products.get(failure.getKey()).getId() + " has not been imported: " + failure.getValue());
+						}
+						return result;
+					});
+			});
+	}
+}
@@ -0,0 +1,100 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.dao.IProductDAO;
+import com.johannpando.springboot.webflux.app.resilience.MongoGuard;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+// Counter of the writes to the catalog, the ETag of the listings: while it does not change,
+// a listing can be answered with a 304 without going to Mongo.
+// The writes of the other instances are counted when they arrive through the CatalogChangeFeed,
+// or by the periodic probe of the products collection when there are no change streams
+@Component
+public class CatalogVersion {
+
+	private static final Logger log = LoggerFactory.getLogger(CatalogVersion.class);
+	
+	@Autowired
+	private IProductDAO productDAO;
+	
+	@Autowired
+	private MongoGuard guard;
+	
+	// Without change streams (standalone Mongo or app.changes.enabled=false) this is how the writes of other instances
+	// change the ETag (0 to disable)
+	@Value("${app.catalog.version.poll-interval}")
+	private Duration pollInterval;
+	
+	// The counter starts again on every start, the start time keeps the ETags of two runs apart
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+	
+	private final AtomicLong version = new AtomicLong();
+	
+	// Number of products and date of the last write seen by the previous probe
+	private final AtomicReference<Tuple2<Long, Long>> lastProbe = new AtomicReference<>();
+	
+	private Disposable probes;
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (pollInterval.isZero()) {
+			return;
+		}
+		probes = Flux.interval(Duration.ZERO, pollInterval)
+			.concatMap(tick -> probe().onErrorResume(e -> {
+				log.warn("The version of the catalog could not be probed: " + e.getMessage());
+				return Mono.empty();
+			}))
+			.subscribe();
+	}
+	
+	@PreDestroy
+	public void stop() {
+		if (probes != null) {
+			probes.dispose();
+		}
+	}
+	
+	// Two reads that do not depend on the size of the catalog: the count kept in the metadata of the collection
+	// and the first entry of the updatedAt index. An insert, a replacement, a patch or a delete changes one of them.
+	// The writes of this instance are counted again, a client only misses one 304 for them
+	Mono<Void> probe() {
+		return Mono.zip(productDAO.estimatedCount(), productDAO.findLastUpdate().map(Date::getTime).defaultIfEmpty(0L))
+			.transform(guard.readMono("catalog.probe"))
+			.doOnNext(state -> {
+				Tuple2<Long, Long> previous = lastProbe.getAndSet(state);
+				// The first probe only takes the starting point
+				if (previous != null && !previous.equals(state)) {
+					increment();
+				}
+			})
+			.then();
+	}
+	
+	// Called once the write is done, so a listing read afterwards never gets the previous ETag
+	public void increment() {
+		version.incrementAndGet();
+	}
+	
+	// Weak, the same catalog may be serialized in different ways
+	public String eTag() {
+		return "W/\"" + epoch + "-" + version.get() + "\"";
+	}
+}
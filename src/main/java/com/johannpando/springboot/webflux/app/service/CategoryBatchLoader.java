@@ -0,0 +1,74 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Resolves the categories of the products without a query per product (N+1). Once the snapshot of the
+// categories is loaded, every product is resolved from memory as soon as it arrives. Before, the ids of a
+// window of products are loaded with one $in query and kept for the rest of the request
+@Component
+public class CategoryBatchLoader {
+
+	@Autowired
+	private ICategoryService categoryService;
+	
+	@Autowired
+	private CategorySnapshot categorySnapshot;
+	
+	@Value("${app.categories.loader.window}")
+	private int window;
+	
+	// A window is never held longer than this, a slow cursor still sends its first products right away
+	@Value("${app.categories.loader.max-wait}")
+	private Duration maxWait;
+	
+	public Flux<Product> resolve(Flux<Product> products) {
+		// Each subscription (each request) has its own categories
+		return Flux.defer(() -> {
+			Map<String, Category> loaded = new HashMap<>();
+			if (categorySnapshot.isLoaded()) {
+				// No buffering, the products of a stream are not held back waiting for the next ones
+				return products.doOnNext(p -> p.setCategory(p.getCategoryId() == null ? null 
+						: loaded.computeIfAbsent(p.getCategoryId(), categorySnapshot::get)));
+			}
+			return products
+				.bufferTimeout(window, maxWait)
+				// The windows are resolved one after the other, so the map is never used concurrently
+				.concatMap(batch -> {
+					Set<String> missing = batch.stream()
+							.map(Product::getCategoryId)
+							.filter(Objects::nonNull)
+							.filter(id -> !loaded.containsKey(id))
+							.collect(Collectors.toSet());
+					
+					Mono<Void> load = missing.isEmpty() ? Mono.empty() 
+							: categoryService.findAllById(missing).doOnNext(c -> loaded.put(c.getId(), c)).then();
+					
+					return load.thenMany(Flux.fromIterable(batch)
+							.doOnNext(p -> p.setCategory(loaded.get(p.getCategoryId()))));
+				});
+		});
+	}
+	
+	public Mono<Product> resolve(Mono<Product> product) {
+		// A single product goes through the cache of the categories
+		return product.flatMap(p -> p.getCategoryId() == null ? Mono.just(p) 
+				: categoryService.findById(p.getCategoryId())
+					.doOnNext(p::setCategory)
+					.thenReturn(p));
+	}
+}
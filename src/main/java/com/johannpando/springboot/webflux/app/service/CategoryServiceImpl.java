@@ -1,10 +1,17 @@
 package com.johannpando.springboot.webflux.app.service;
 
+import java.util.Collection;
+import java.util.Objects;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import com.johannpando.springboot.webflux.app.dao.ICategoryDAO;
+import com.johannpando.springboot.webflux.app.dao.IProductDAO;
 import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.metrics.ReactiveMetrics;
+import com.johannpando.springboot.webflux.app.resilience.MongoGuard;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -15,19 +22,82 @@ public class CategoryServiceImpl implements ICategoryService {
 	@Autowired
 	private ICategoryDAO categoryDAO;
 	
+	@Autowired
+	private CategorySnapshot categorySnapshot;
+	
+	@Autowired
+	private IProductDAO productDAO;
+	
+	@Autowired
+	private CatalogVersion catalogVersion;
+	
+	@Autowired
+	private ReactiveMetrics metrics;
+	
+	@Autowired
+	private MongoGuard guard;
+	
+	// Tag of the metrics of this service
+	private static final String SERVICE = "category";
+	
 	@Override
 	public Flux<Category> findAll() {
-		return categoryDAO.findAll();
+		// Sorted by name from the snapshot, Mongo is only read before it is loaded
+		Flux<Category> categories = categorySnapshot.isLoaded() ? Flux.defer(() -> Flux.fromIterable(categorySnapshot.getAll()))
+				: categoryDAO.findAll().transform(guard.readFlux(SERVICE + ".findAll"));
+		return categories.transform(metrics.timedFlux(SERVICE, "findAll"));
 	}
 
 	@Override
 	public Mono<Category> findById(String id) {
-		return categoryDAO.findById(id);
+		Mono<Category> category = categorySnapshot.isLoaded() ? Mono.fromSupplier(() -> categorySnapshot.get(id))
+				: categoryDAO.findById(id).transform(guard.readMono(SERVICE + ".findById"));
+		return category.transform(metrics.timedMono(SERVICE, "findById"));
 	}
 
 	@Override
-	public Mono<Category> save(Category category) {
-		return categoryDAO.save(category);
+	public Flux<Category> findAllById(Collection<String> ids) {
+		// A single query with $in for all the ids, only before the snapshot is loaded
+		Flux<Category> categories = categorySnapshot.isLoaded() 
+				? Flux.defer(() -> Flux.fromStream(ids.stream().map(categorySnapshot::get).filter(Objects::nonNull)))
+				: categoryDAO.findAllById(ids).transform(guard.readFlux(SERVICE + ".findAllById"));
+		return categories.transform(metrics.timedFlux(SERVICE, "findAllById"));
 	}
 
+	@Override
+	public Mono<Category> save(Category category) {
+		// Only an existing category can be renamed
+		boolean existing = category.getId() != null;
+		return categoryDAO.save(category)
+			.transform(guard.writeMono(SERVICE + ".save"))
+			// The snapshot has the category before the response, the next read of the client finds it
+			.flatMap(saved -> categorySnapshot.reload().thenReturn(saved))
+			// The listings show the categories of the products
+			.doOnNext(saved -> catalogVersion.increment())
+			// The products keep a copy of the name for the full-text search
+			.flatMap(saved -> existing ? productDAO.renameCategory(saved.getId(), saved.getName())
+					.transform(guard.writeMono(SERVICE + ".renameCategory")).thenReturn(saved) : Mono.just(saved))
+			.transform(metrics.timedMono(SERVICE, "save"));
+	}
+	
+	@Override
+	public Mono<Boolean> delete(String id) {
+		return productDAO.existsByCategoryId(id)
+			.transform(guard.readMono(SERVICE + ".existsByCategoryId"))
+			// The products would keep a reference to nothing
+			.flatMap(used -> used ? Mono.error(new DataIntegrityViolationException("The category " + id + " has products")) 
+					: categoryDAO.existsById(id).transform(guard.readMono(SERVICE + ".existsById")))
+			.flatMap(exists -> exists ? categoryDAO.deleteById(id)
+					.transform(guard.writeMono(SERVICE + ".delete"))
+					.then(categorySnapshot.reload())
+					.doOnSuccess(done -> catalogVersion.increment())
+					.thenReturn(true) : Mono.just(false))
+			.transform(metrics.timedMono(SERVICE, "delete"));
+	}
+	
+	@Override
+	public boolean exists(String id) {
+		// Until the snapshot is loaded nothing can be checked, the categories are not refused
+		return !categorySnapshot.isLoaded() || categorySnapshot.contains(id);
+	}
 }
@@ -0,0 +1,136 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.dao.ICategoryDAO;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.resilience.MongoGuard;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// The whole categories collection in memory: it is small and read by every product, and written rarely.
+// The readers get an immutable map without locks, a write loads the collection again and replaces the map in one step
+@Component
+public class CategorySnapshot {
+
+	private static final Logger log = LoggerFactory.getLogger(CategorySnapshot.class);
+	
+	// Before the first load the readers go to Mongo
+	private static final Snapshot NOT_LOADED = new Snapshot(-1, Map.of());
+	
+	@Autowired
+	private ICategoryDAO categoryDAO;
+	
+	@Autowired
+	private MongoGuard guard;
+	
+	@Autowired
+	private CatalogVersion catalogVersion;
+	
+	// Without change streams (standalone Mongo) this is how the writes of other instances arrive (0 to disable)
+	@Value("${app.categories.snapshot.refresh-interval}")
+	private Duration refreshInterval;
+	
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(NOT_LOADED);
+	
+	// Every load takes a number when it starts, a load never replaces the result of a load that started after it
+	private final AtomicLong generations = new AtomicLong();
+	
+	private Disposable refreshes;
+	
+	private static final class Snapshot {
+		
+		private final long generation;
+		
+		// Sorted by name, so the listing is the iteration of the map
+		private final Map<String, Category> categories;
+		
+		private Snapshot(long generation, Map<String, Category> categories) {
+			this.generation = generation;
+			this.categories = categories;
+		}
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (refreshInterval.isZero()) {
+			return;
+		}
+		refreshes = Flux.interval(refreshInterval, refreshInterval)
+			.concatMap(tick -> reload().onErrorResume(e -> {
+				log.warn("The categories could not be reloaded: " + e.getMessage());
+				return Mono.empty();
+			}))
+			.subscribe();
+	}
+	
+	@PreDestroy
+	public void stop() {
+		if (refreshes != null) {
+			refreshes.dispose();
+		}
+	}
+	
+	public Mono<Void> reload() {
+		return Mono.defer(() -> {
+			long generation = generations.incrementAndGet();
+			return categoryDAO.findAll()
+				.transform(guard.readFlux("category.reload"))
+				.sort(Comparator.comparing(Category::getName, Comparator.nullsLast(String::compareTo)))
+				.collect(LinkedHashMap<String, Category>::new, (map, category) -> map.put(category.getId(), category))
+				.doOnNext(categories -> {
+					Snapshot previous = snapshot.getAndAccumulate(
+							new Snapshot(generation, Collections.unmodifiableMap(categories)),
+							(current, loaded) -> current.generation > loaded.generation ? current : loaded);
+					// The listings show the categories, a change that arrives by the refresh is a new version of the catalog
+					if (previous != NOT_LOADED && previous.generation < generation && !previous.categories.equals(categories)) {
+						catalogVersion.increment();
+					}
+				})
+				.then();
+		});
+	}
+	
+	public boolean isLoaded() {
+		return snapshot.get() != NOT_LOADED;
+	}
+	
+	public boolean contains(String id) {
+		return id != null && snapshot.get().categories.containsKey(id);
+	}
+	
+	// Copies, the categories of the snapshot are shared by all the readers
+	public Category get(String id) {
+		Category category = id != null ? snapshot.get().categories.get(id) : null;
+		return category != null ? copy(category) : null;
+	}
+	
+	public List<Category> getAll() {
+		return snapshot.get().categories.values().stream().map(CategorySnapshot::copy).toList();
+	}
+	
+	private static Category copy(Category category) {
+		Category copy = new Category();
+		BeanUtils.copyProperties(category, copy);
+		return copy;
+	}
+}
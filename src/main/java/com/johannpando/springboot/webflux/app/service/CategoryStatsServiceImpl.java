@@ -0,0 +1,250 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.johannpando.springboot.webflux.app.dao.CategoryStatsStore;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.CategoryStats;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.CategoryStatsDTO;
+import com.johannpando.springboot.webflux.app.metrics.ReactiveMetrics;
+import com.johannpando.springboot.webflux.app.resilience.MongoGuard;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Service
+public class CategoryStatsServiceImpl implements ICategoryStatsService {
+	
+	private static final Logger log = LoggerFactory.getLogger(CategoryStatsServiceImpl.class);
+	
+	@Autowired
+	private CategoryStatsStore categoryStatsStore;
+	
+	@Autowired
+	private ICategoryService categoryService;
+	
+	@Autowired
+	private ReactiveMetrics metrics;
+	
+	@Autowired
+	private MongoGuard guard;
+	
+	// The rollup is computed again from the products every interval, it corrects the drift of the
+	// writes that raced or failed to update it (0 to disable)
+	@Value("${app.stats.rebuild-interval}")
+	private Duration rebuildInterval;
+	
+	// Tag of the metrics of this service
+	private static final String SERVICE = "categoryStats";
+	
+	private Disposable rebuilds;
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (rebuildInterval.isZero()) {
+			return;
+		}
+		rebuilds = Flux.interval(rebuildInterval, rebuildInterval)
+			.concatMap(tick -> rebuild())
+			.subscribe();
+	}
+	
+	@PreDestroy
+	public void stop() {
+		if (rebuilds != null) {
+			rebuilds.dispose();
+		}
+	}
+	
+	@Override
+	public Flux<CategoryStatsDTO> findAll() {
+		return withNames(categoryStatsStore.findAll().transform(guard.readFlux(SERVICE + ".findAll")))
+			.transform(metrics.timedFlux(SERVICE, "findAll"));
+	}
+	
+	@Override
+	public Flux<CategoryStatsDTO> aggregate() {
+		return withNames(categoryStatsStore.aggregate(null).transform(guard.readFlux(SERVICE + ".aggregate")))
+			.transform(metrics.timedFlux(SERVICE, "aggregate"));
+	}
+	
+	// The categories are few, their names are read once for all the statistics
+	private Flux<CategoryStatsDTO> withNames(Flux<CategoryStats> stats) {
+		return categoryService.findAll()
+			.collectMap(Category::getId, Category::getName)
+			.flatMapMany(names -> stats.map(stat -> CategoryStatsDTO.of(stat, names.get(stat.getCategoryId()))));
+	}
+	
+	@Override
+	public Mono<Void> productAdded(Product product) {
+		if (product.getCategoryId() == null) {
+			return Mono.empty();
+		}
+		if (product.getPrice() == null) {
+			return refresh(List.of(product.getCategoryId()));
+		}
+		return categoryStatsStore.add(product.getCategoryId(), product.getPrice(), product.getCreateAt())
+			.transform(guard.writeMono(SERVICE + ".add"))
+			.onErrorResume(e -> skipped(product.getCategoryId(), e))
+			.transform(metrics.timedMono(SERVICE, "productAdded"));
+	}
+	
+	@Override
+	public Mono<Void> productRemoved(Product product) {
+		String categoryId = product.getCategoryId();
+		if (categoryId == null) {
+			return Mono.empty();
+		}
+		if (product.getPrice() == null) {
+			return refresh(List.of(categoryId));
+		}
+		double price = product.getPrice();
+		return categoryStatsStore.subtract(categoryId, 1, price)
+			.transform(guard.writeMono(SERVICE + ".subtract"))
+			// The minimum, the maximum or the newest date may have gone with the product,
+			// only a $group of the category knows the next one
+			.filter(stats -> stats.getCount() <= 0
+					|| stats.getMinPrice() == null || price <= stats.getMinPrice()
+					|| stats.getMaxPrice() == null || price >= stats.getMaxPrice()
+					|| (product.getCreateAt() != null && (stats.getNewestCreateAt() == null 
+							|| !product.getCreateAt().before(stats.getNewestCreateAt()))))
+			.flatMap(stats -> refresh(List.of(categoryId)))
+			.onErrorResume(e -> skipped(categoryId, e))
+			.transform(metrics.timedMono(SERVICE, "productRemoved"));
+	}
+	
+	@Override
+	public Mono<Void> productChanged(Product previous, Product current) {
+		return productsChanged(Collections.singletonList(previous), List.of(current));
+	}
+	
+	@Override
+	public Mono<Void> productsChanged(List<Product> previous, List<Product> current) {
+		// What the written products add and what the replaced ones take away, by category
+		Map<String, CategoryStats> added = new HashMap<>();
+		Map<String, CategoryStats> removed = new HashMap<>();
+		// Without a price the counters can not be corrected, the category is computed again
+		Set<String> recomputed = new HashSet<>();
+		for (int i = 0; i < current.size(); i++) {
+			Product before = previous.get(i);
+			Product after = current.get(i);
+			// Only the price and the category are in the rollup, the creation date of a product never changes
+			if (before != null && Objects.equals(before.getCategoryId(), after.getCategoryId()) 
+					&& Objects.equals(before.getPrice(), after.getPrice())) {
+				continue;
+			}
+			accumulate(added, recomputed, after, after.getCreateAt());
+			if (before != null) {
+				// The product is still there with its creation date, the newest date of the category does not go down
+				accumulate(removed, recomputed, before, null);
+			}
+		}
+		Set<String> categories = new HashSet<>(recomputed);
+		categories.addAll(added.keySet());
+		categories.addAll(removed.keySet());
+		if (categories.isEmpty()) {
+			return Mono.empty();
+		}
+		// The additions go first, a $group run because of a removed extreme already sees the new prices
+		return Flux.fromIterable(added.values())
+			.concatMap(delta -> categoryStatsStore.add(delta).transform(guard.writeMono(SERVICE + ".add")))
+			.thenMany(Flux.fromIterable(removed.values())
+				.concatMap(delta -> categoryStatsStore.subtract(delta.getCategoryId(), delta.getCount(), delta.getPriceSum())
+					.transform(guard.writeMono(SERVICE + ".subtract"))
+					// The minimum or the maximum may have gone with the products, only a $group of the category knows the next one
+					.filter(stats -> stats.getCount() <= 0
+							|| stats.getMinPrice() == null || delta.getMinPrice() <= stats.getMinPrice()
+							|| stats.getMaxPrice() == null || delta.getMaxPrice() >= stats.getMaxPrice())
+					.map(CategoryStats::getCategoryId)))
+			.doOnNext(recomputed::add)
+			.then(Mono.defer(() -> refresh(recomputed)))
+			.onErrorResume(e -> skipped(String.join(", ", categories), e))
+			.transform(metrics.timedMono(SERVICE, "productsChanged"));
+	}
+	
+	// Adds the product to the statistics of its category
+	private static void accumulate(Map<String, CategoryStats> stats, Set<String> recomputed, Product product, Date createAt) {
+		String categoryId = product.getCategoryId();
+		if (categoryId == null) {
+			return;
+		}
+		if (product.getPrice() == null) {
+			recomputed.add(categoryId);
+			return;
+		}
+		double price = product.getPrice();
+		CategoryStats delta = stats.computeIfAbsent(categoryId, id -> {
+			CategoryStats empty = new CategoryStats();
+			empty.setCategoryId(id);
+			empty.setMinPrice(price);
+			empty.setMaxPrice(price);
+			return empty;
+		});
+		delta.setCount(delta.getCount() + 1);
+		delta.setPriceSum(delta.getPriceSum() + price);
+		delta.setMinPrice(Math.min(delta.getMinPrice(), price));
+		delta.setMaxPrice(Math.max(delta.getMaxPrice(), price));
+		if (createAt != null && (delta.getNewestCreateAt() == null || createAt.after(delta.getNewestCreateAt()))) {
+			delta.setNewestCreateAt(createAt);
+		}
+	}
+	
+	@Override
+	public Mono<Void> refresh(Collection<String> categoryIds) {
+		Set<String> ids = categoryIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+		if (ids.isEmpty()) {
+			return Mono.empty();
+		}
+		// One aggregation for all the categories, a category without products loses its rollup
+		return categoryStatsStore.aggregate(ids)
+			.transform(guard.readFlux(SERVICE + ".aggregate"))
+			.collectMap(CategoryStats::getCategoryId)
+			.flatMapMany(computed -> Flux.fromIterable(ids)
+					.concatMap(id -> computed.containsKey(id) 
+							? categoryStatsStore.save(computed.get(id)) : categoryStatsStore.delete(id)))
+			.then()
+			.transform(guard.writeMono(SERVICE + ".refresh"))
+			.onErrorResume(e -> skipped(String.join(", ", ids), e))
+			.transform(metrics.timedMono(SERVICE, "refresh"));
+	}
+	
+	@Override
+	public Mono<Void> rebuild() {
+		long start = System.nanoTime();
+		return categoryStatsStore.rebuild()
+			.transform(guard.writeMono(SERVICE + ".rebuild"))
+			.doOnSuccess(done -> log.info("The statistics of the categories are rebuilt in " + (System.nanoTime() - start) / 1_000_000 + " ms"))
+			.onErrorResume(e -> {
+				log.warn("The statistics of the categories could not be rebuilt: " + e.getMessage());
+				return Mono.empty();
+			})
+			.transform(metrics.timedMono(SERVICE, "rebuild"));
+	}
+	
+	// The write of the product is done, a rollup behind is corrected by the next rebuild
+	private static Mono<Void> skipped(String categoryIds, Throwable e) {
+		log.warn("The statistics of the categories " + categoryIds + " are not updated: " + e.getMessage());
+		return Mono.empty();
+	}
+}
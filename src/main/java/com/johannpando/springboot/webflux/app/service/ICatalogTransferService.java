@@ -0,0 +1,18 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+
+import com.johannpando.springboot.webflux.app.dto.CatalogImportResultDTO;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ICatalogTransferService {
+
+	// NDJSON of the categories and then the products, encoded while the cursors are read
+	Flux<DataBuffer> export(boolean images, DataBufferFactory bufferFactory);
+	
+	// Upserts the categories and the products of an export, batch by batch while the NDJSON arrives
+	Mono<CatalogImportResultDTO> importCatalog(Flux<DataBuffer> ndjson);
+}
@@ -1,5 +1,7 @@
 package com.johannpando.springboot.webflux.app.service;
 
+import java.util.Collection;
+
 import com.johannpando.springboot.webflux.app.document.Category;
 
 import reactor.core.publisher.Flux;
@@ -11,5 +13,13 @@ public interface ICategoryService {
 	
 	Mono<Category> findById(String id);
 	
+	Flux<Category> findAllById(Collection<String> ids);
+	
 	Mono<Category> save(Category category);
+	
+	// False when the category does not exist, a category of some products can not be deleted
+	Mono<Boolean> delete(String id);
+	
+	// Checked in memory, without going to Mongo
+	boolean exists(String id);
 }
@@ -0,0 +1,35 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.CategoryStatsDTO;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ICategoryStatsService {
+
+	// From the rollup, one document by category
+	Flux<CategoryStatsDTO> findAll();
+	
+	// Computed now from the products, the rollup is not read
+	Flux<CategoryStatsDTO> aggregate();
+	
+	// The rollup follows the writes of the products, its failures are logged and left to the next rebuild
+	Mono<Void> productAdded(Product product);
+	
+	Mono<Void> productRemoved(Product product);
+	
+	// A product written over its previous state (null for a new product): only the difference goes to the rollup,
+	// nothing when neither the price nor the category changed
+	Mono<Void> productChanged(Product previous, Product current);
+	
+	// The same for the products of a bulk write, by position, with one update by category
+	Mono<Void> productsChanged(List<Product> previous, List<Product> current);
+	
+	Mono<Void> refresh(Collection<String> categoryIds);
+	
+	Mono<Void> rebuild();
+}
@@ -0,0 +1,29 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.util.Collection;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsResource;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface IProductImageService {
+
+	Mono<String> store(Flux<DataBuffer> content, String filename, String contentType);
+	
+	Mono<String> storeBase64(String base64Image, String filename);
+	
+	// The Base64 body is decoded and stored chunk by chunk
+	Mono<String> storeBase64(Flux<DataBuffer> base64Image, String filename);
+	
+	long getMaxImageSize();
+	
+	Mono<ReactiveGridFsResource> findById(String imageId);
+	
+	Mono<Void> delete(String imageId);
+	
+	// Best effort clean up of images that no product references, one round-trip whatever the number of images.
+	// Never fails: an image that could not be deleted is only an orphan file in GridFS
+	Mono<Void> deleteAll(Collection<String> imageIds);
+}
@@ -1,6 +1,12 @@
 package com.johannpando.springboot.webflux.app.service;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -9,9 +15,28 @@ public interface IProductService {
 	
 	Flux<Product> findAll();
 	
+	Flux<Product> findPage(String afterId, int limit, Set<String> fields);
+	
+	Flux<Product> streamAll(int prefetch, Set<String> fields);
+	
 	Mono<Product> findById(String id);
 	
+	Mono<Product> findById(String id, Set<String> fields);
+	
+	Flux<Product> search(ProductSearchDTO search, Set<String> fields);
+	
 	Mono<Product> save(Product product);
 	
+	Mono<Map<Integer, String>> bulkSave(List<Product> products);
+	
+	Mono<Product> patch(String id, Map<String, Object> changes, Long expectedVersion);
+	
+	// Points the product to its new image and removes the previous one
+	Mono<Product> replaceImage(Product product, String imageId);
+	
 	Mono<Void> delete(Product product);
+	
+	Mono<Long> deleteById(String id);
+	
+	Mono<Long> deleteAll(ProductDeleteFilterDTO filter);
 }
@@ -0,0 +1,11 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import com.johannpando.springboot.webflux.app.dto.ImageVariantDTO;
+
+import reactor.core.publisher.Mono;
+
+public interface IProductThumbnailService {
+
+	// The thumbnail is created the first time it is requested, empty when the image can not be read
+	Mono<ImageVariantDTO> findThumbnail(String imageId, int size);
+}
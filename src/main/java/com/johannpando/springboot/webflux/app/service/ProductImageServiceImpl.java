@@ -0,0 +1,153 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsResource;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.johannpando.springboot.webflux.app.codec.Base64DataBufferDecoder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// The images live in GridFS (fs.files / fs.chunks), the products only keep the id of the file
+@Service
+public class ProductImageServiceImpl implements IProductImageService {
+
+	private static final Logger log = LoggerFactory.getLogger(ProductImageServiceImpl.class);
+
+	// Bytes read by URLConnection.guessContentTypeFromStream
+	private static final int MAGIC_NUMBERS_LENGTH = 16;
+
+	@Autowired
+	private ReactiveGridFsTemplate gridFsTemplate;
+	
+	// Larger images are rejected before they are stored
+	@Value("${app.images.max-size}")
+	private DataSize maxImageSize;
+	
+	@Override
+	public Mono<String> store(Flux<DataBuffer> content, String filename, String contentType) {
+		// GridFS splits the content in chunks while it arrives, the image is never fully in memory
+		return gridFsTemplate.store(limit(content), filename, contentType)
+				.map(ObjectId::toHexString);
+	}
+	
+	// Fails with DataBufferLimitException as soon as the content goes over the maximum size, whatever the way it is uploaded
+	private Flux<DataBuffer> limit(Flux<DataBuffer> content) {
+		long maxSize = maxImageSize.toBytes();
+		return Flux.defer(() -> {
+			long[] size = { 0 };
+			return content.map(buffer -> {
+				size[0] += buffer.readableByteCount();
+				if (size[0] > maxSize) {
+					DataBufferUtils.release(buffer);
+					throw new DataBufferLimitException("The image exceeds the maximum size of " + maxSize + " bytes");
+				}
+				return buffer;
+			});
+		});
+	}
+
+	@Override
+	public Mono<String> storeBase64(String base64Image, String filename) {
+		if (Base64DataBufferDecoder.decodedLength(base64Image.length()) > maxImageSize.toBytes()) {
+			return Mono.error(new DataBufferLimitException("The image exceeds the maximum size of " + maxImageSize.toBytes() + " bytes"));
+		}
+		return Mono.fromCallable(() -> Base64.getDecoder().decode(base64Image)) // Decode the base64 image
+			.flatMap(image -> store(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(image)), filename, guessContentType(image)));
+	}
+
+	@Override
+	public Mono<String> storeBase64(Flux<DataBuffer> base64Image, String filename) {
+		return Base64DataBufferDecoder.decode(base64Image, maxImageSize.toBytes())
+			// The content type is guessed from the first chunk, then every chunk goes to GridFS as it is decoded
+			.switchOnFirst((first, image) -> {
+				if (!first.hasValue()) {
+					return first.isOnError() ? Mono.error(first.getThrowable()) 
+							: Mono.error(new IllegalArgumentException("The image must not be empty"));
+				}
+				return store(image, filename, guessContentType(first.get()));
+			})
+			.single();
+	}
+	
+	@Override
+	public long getMaxImageSize() {
+		return maxImageSize.toBytes();
+	}
+
+	@Override
+	public Mono<ReactiveGridFsResource> findById(String imageId) {
+		if (!ObjectId.isValid(imageId)) {
+			return Mono.empty();
+		}
+		return gridFsTemplate.findOne(byId(imageId))
+			.flatMap(gridFsTemplate::getResource);
+	}
+
+	@Override
+	public Mono<Void> delete(String imageId) {
+		// Removes the file, its thumbnails and all their chunks
+		return gridFsTemplate.delete(new Query(new Criteria().orOperator(
+				Criteria.where("_id").is(new ObjectId(imageId)),
+				Criteria.where("metadata." + ProductThumbnailServiceImpl.VARIANT_OF).is(imageId))));
+	}
+	
+	@Override
+	public Mono<Void> deleteAll(Collection<String> imageIds) {
+		List<String> valid = imageIds.stream().filter(ObjectId::isValid).distinct().toList();
+		if (valid.isEmpty()) {
+			return Mono.empty();
+		}
+		return gridFsTemplate.delete(new Query(new Criteria().orOperator(
+				Criteria.where("_id").in(valid.stream().map(ObjectId::new).toList()),
+				Criteria.where("metadata." + ProductThumbnailServiceImpl.VARIANT_OF).in(valid))))
+			.onErrorResume(e -> {
+				log.warn("Images " + valid + " could not be deleted: " + e.getMessage());
+				return Mono.empty();
+			});
+	}
+	
+	private static Query byId(String imageId) {
+		return new Query(Criteria.where("_id").is(new ObjectId(imageId)));
+	}
+	
+	private static String guessContentType(DataBuffer firstChunk) {
+		// The magic numbers are in the first bytes, the chunk itself is not consumed
+		byte[] header = new byte[Math.min(MAGIC_NUMBERS_LENGTH, firstChunk.readableByteCount())];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = firstChunk.getByte(firstChunk.readPosition() + i);
+		}
+		return guessContentType(header);
+	}
+	
+	// The Base64 payload does not carry a content type, so we look at the magic numbers of the image
+	private static String guessContentType(byte[] image) {
+		try {
+			String contentType = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(image));
+			return contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+		} catch (IOException e) {
+			return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+		}
+	}
+}
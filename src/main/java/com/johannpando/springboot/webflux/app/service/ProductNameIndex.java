@@ -0,0 +1,97 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.johannpando.springboot.webflux.app.dao.IProductDAO;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ProductSuggestionDTO;
+
+import reactor.core.publisher.Mono;
+
+// Sorted index in memory of the names of the products for the typeahead:
+// a prefix is a range of the sorted keys, so a suggestion never goes to Mongo
+@Component
+public class ProductNameIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(ProductNameIndex.class);
+	
+	// Separates the name from the id in the keys, it is lower than any character of a name
+	private static final char SEPARATOR = '\u0000';
+	
+	// Products read per round-trip when the index is loaded
+	private static final int LOAD_BATCH_SIZE = 1000;
+	
+	@Autowired
+	private IProductDAO productDAO;
+	
+	// Lower case name + separator + id -> name, the id makes the key unique for products with the same name
+	private final ConcurrentSkipListMap<String, ProductSuggestionDTO> names = new ConcurrentSkipListMap<>();
+	
+	// Id -> key in names, to find the old key when a product is renamed or deleted
+	private final Map<String, String> keys = new ConcurrentHashMap<>();
+	
+	// Replaces the content of the index with the products stored in Mongo
+	public Mono<Long> load() {
+		return Mono.fromRunnable(this::clear)
+			.thenMany(productDAO.streamAll(LOAD_BATCH_SIZE, Set.of("id", "name")))
+			.doOnNext(this::put)
+			.count()
+			.doOnNext(count -> log.info("The typeahead index has been loaded with " + count + " products"));
+	}
+	
+	// The readers never lock, the writers are serialized so the two maps stay consistent
+	public synchronized void put(Product product) {
+		if (product.getId() == null || product.getName() == null) {
+			return;
+		}
+		String key = key(product.getName(), product.getId());
+		String previous = keys.put(product.getId(), key);
+		if (previous != null && !previous.equals(key)) {
+			names.remove(previous);
+		}
+		names.put(key, new ProductSuggestionDTO(product.getId(), product.getName()));
+	}
+	
+	public synchronized void remove(String id) {
+		String previous = keys.remove(id);
+		if (previous != null) {
+			names.remove(previous);
+		}
+	}
+	
+	public synchronized void clear() {
+		keys.clear();
+		names.clear();
+	}
+	
+	// The products whose name starts with the prefix, ignoring case, sorted by name
+	public List<ProductSuggestionDTO> suggest(String prefix, int limit) {
+		String from = prefix.toLowerCase(Locale.ROOT);
+		// Every key that starts with the prefix is lower than the prefix followed by the highest character
+		ConcurrentNavigableMap<String, ProductSuggestionDTO> range = names.subMap(from, true, from + Character.MAX_VALUE, false);
+		List<ProductSuggestionDTO> suggestions = new ArrayList<>(Math.min(limit, 16));
+		for (ProductSuggestionDTO suggestion : range.values()) {
+			if (suggestions.size() == limit) {
+				break;
+			}
+			suggestions.add(suggestion);
+		}
+		return suggestions;
+	}
+	
+	private static String key(String name, String id) {
+		return name.toLowerCase(Locale.ROOT) + SEPARATOR + id;
+	}
+}
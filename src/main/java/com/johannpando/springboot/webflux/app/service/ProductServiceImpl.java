@@ -1,13 +1,32 @@
 package com.johannpando.springboot.webflux.app.service;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import com.johannpando.springboot.webflux.app.cache.ReactiveCache;
 import com.johannpando.springboot.webflux.app.dao.IProductDAO;
 import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.document.ProductFields;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+import com.johannpando.springboot.webflux.app.metrics.ReactiveMetrics;
+import com.johannpando.springboot.webflux.app.resilience.MongoGuard;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 @Service
 public class ProductServiceImpl implements IProductService {
@@ -15,24 +34,358 @@ public class ProductServiceImpl implements IProductService {
 	@Autowired
 	private IProductDAO productDAO;
 	
+	@Autowired
+	private IProductImageService productImageService;
+	
+	@Autowired
+	private ReactiveCache<Product> productCache;
+	
+	@Autowired
+	private CategoryBatchLoader categoryLoader;
+	
+	@Autowired
+	private ICategoryService categoryService;
+	
+	@Autowired
+	private ProductNameIndex productNameIndex;
+	
+	@Autowired
+	private CatalogVersion catalogVersion;
+	
+	@Autowired
+	private ICategoryStatsService categoryStats;
+	
+	@Autowired
+	private ReactiveMetrics metrics;
+	
+	@Autowired
+	private MongoGuard guard;
+	
+	// Tag of the metrics of this service
+	private static final String SERVICE = "product";
+	
+	// Images removed at the same time after a bulk delete
+	private static final int DELETE_CONCURRENCY = 8;
+	
 	@Override
 	public Flux<Product> findAll() {
-		return productDAO.findAll();
+		return categoryLoader.resolve(productDAO.findAll().transform(guard.readFlux(SERVICE + ".findAll")))
+			.transform(metrics.timedFlux(SERVICE, "findAll"));
+	}
+
+	@Override
+	public Flux<Product> findPage(String afterId, int limit, Set<String> fields) {
+		return withCategories(productDAO.findPage(afterId, limit, fields).transform(guard.readFlux(SERVICE + ".findPage")), fields)
+			.transform(metrics.timedFlux(SERVICE, "findPage"));
+	}
+
+	@Override
+	public Flux<Product> streamAll(int prefetch, Set<String> fields) {
+		return withCategories(productDAO.streamAll(prefetch, fields)
+			// We never request more than "prefetch" products from the cursor, whatever the subscriber asks
+			.limitRate(prefetch)
+			.transform(guard.readFlux(SERVICE + ".streamAll")), fields)
+			.transform(metrics.timedFlux(SERVICE, "streamAll"));
 	}
 
 	@Override
 	public Mono<Product> findById(String id) {
-		return productDAO.findById(id);
+		return findById(id, ProductFields.ALL);
+	}
+	
+	@Override
+	public Mono<Product> findById(String id, Set<String> fields) {
+		Mono<Product> product;
+		if (ProductFields.ALL.equals(fields)) {
+			// Only the full product is cached, the other projections go to Mongo
+			product = categoryLoader.resolve(productCache.get(id, key -> productDAO.findById(key, ProductFields.ALL)
+					.transform(guard.readMono(SERVICE + ".findById"))));
+		} else {
+			product = productDAO.findById(id, fields).transform(guard.readMono(SERVICE + ".findById"));
+			product = fields.contains("category") ? categoryLoader.resolve(product) : product;
+		}
+		return product.transform(metrics.timedMono(SERVICE, "findById"));
+	}
+	
+	@Override
+	public Flux<Product> search(ProductSearchDTO search, Set<String> fields) {
+		return withCategories(productDAO.search(search, fields).transform(guard.readFlux(SERVICE + ".search")), fields)
+			.transform(metrics.timedFlux(SERVICE, "search"));
+	}
+	
+	// The categories are only resolved when the client asked for them
+	private Flux<Product> withCategories(Flux<Product> products, Set<String> fields) {
+		return fields.contains("category") ? categoryLoader.resolve(products) : products;
 	}
 
 	@Override
 	public Mono<Product> save(Product product) {
-		return productDAO.save(product);
+		// The category may have been saved after it was given to the product
+		if (product.getCategory() != null && product.getCategory().getId() != null) {
+			product.setCategoryId(product.getCategory().getId());
+		}
+		product.setUpdatedAt(new Date());
+		return withCategoryName(product)
+			.flatMap(this::write)
+			.doOnNext(written -> catalogVersion.increment())
+			// The cache is refreshed with the saved product, the next read does not go to Mongo
+			.doOnNext(written -> productCache.put(written.getT2().getId(), written.getT2()))
+			.doOnNext(written -> productNameIndex.put(written.getT2()))
+			// Only the difference goes to the rollup, nothing when neither the price nor the category changed
+			.flatMap(written -> categoryStats.productChanged(written.getT1().orElse(null), written.getT2()).thenReturn(written.getT2()))
+			.transform(metrics.timedMono(SERVICE, "save"));
+	}
+	
+	// A new product is inserted, an existing one is replaced if it still has its version, and we get what it replaced
+	private Mono<Tuple2<Optional<Product>, Product>> write(Product product) {
+		if (product.getVersion() == null) {
+			return productDAO.save(product).transform(guard.writeMono(SERVICE + ".save"))
+				.map(saved -> Tuples.of(Optional.<Product>empty(), saved));
+		}
+		return productDAO.replace(product).transform(guard.writeMono(SERVICE + ".save"))
+			.switchIfEmpty(Mono.error(() -> new OptimisticLockingFailureException("The product " + product.getId() 
+					+ " does not have the version " + product.getVersion())))
+			.map(previous -> {
+				product.setVersion(product.getVersion() + 1);
+				return Tuples.of(Optional.of(previous), product);
+			});
+	}
+	
+	// The stored state of the products before they are replaced, by id, only what is needed to clean up after them
+	private Mono<Map<String, Product>> previousProducts(List<String> ids) {
+		return ids.isEmpty() ? Mono.just(Map.of()) 
+				: productDAO.findByIds(ids, ProductFields.PREVIOUS).transform(guard.readFlux(SERVICE + ".findByIds")).collectMap(Product::getId);
+	}
+	
+	// The elements of the list whose write succeeded (the list may contain nulls)
+	private static List<Product> written(List<Product> products, Map<Integer, String> errors) {
+		List<Product> written = new ArrayList<>();
+		for (int i = 0; i < products.size(); i++) {
+			if (!errors.containsKey(i)) {
+				written.add(products.get(i));
+			}
+		}
+		return written;
+	}
+	
+	// The images that the written products no longer reference
+	private static List<String> replacedImages(List<Product> products, Map<String, Product> previous, Map<Integer, String> errors) {
+		List<String> imageIds = new ArrayList<>();
+		for (int i = 0; i < products.size(); i++) {
+			Product replaced = previous.get(products.get(i).getId());
+			if (!errors.containsKey(i) && replaced != null && replaced.getImageId() != null 
+					&& !replaced.getImageId().equals(products.get(i).getImageId())) {
+				imageIds.add(replaced.getImageId());
+			}
+		}
+		return imageIds;
+	}
+	
+	// The name of the category is copied into the product for the full-text search
+	private Mono<Product> withCategoryName(Product product) {
+		if (product.getCategory() != null && product.getCategory().getName() != null) {
+			product.setCategoryName(product.getCategory().getName());
+			return Mono.just(product);
+		}
+		if (product.getCategoryId() == null) {
+			return Mono.just(product);
+		}
+		return categoryService.findById(product.getCategoryId())
+			.map(category -> {
+				product.setCategoryName(category.getName());
+				return product;
+			})
+			.defaultIfEmpty(product);
+	}
+
+	@Override
+	public Mono<Map<Integer, String>> bulkSave(List<Product> products) {
+		products.forEach(product -> {
+			// Only a new product gets the date of now, an upsert without it keeps the stored one (or sets it on insert)
+			if (product.getId() == null && product.getCreateAt() == null) {
+				product.setCreateAt(new Date());
+			}
+			product.setUpdatedAt(new Date());
+			if (product.getCategory() != null && product.getCategory().getId() != null) {
+				product.setCategoryId(product.getCategory().getId());
+			}
+		});
+		List<String> replacedIds = products.stream().map(Product::getId).filter(Objects::nonNull).toList();
+		return previousProducts(replacedIds)
+			.flatMap(previous -> Flux.fromIterable(products)
+				.concatMap(this::withCategoryName)
+				.then(productDAO.bulkUpsert(products).transform(guard.writeMono(SERVICE + ".bulkSave")))
+				// Only the differences go to the rollup, one update by category of the batch
+				.flatMap(errors -> categoryStats.productsChanged(written(products.stream().map(p -> previous.get(p.getId())).toList(), errors), 
+						written(products, errors)).thenReturn(errors))
+				.flatMap(errors -> productImageService.deleteAll(replacedImages(products, previous, errors)).thenReturn(errors)))
+			// The upserts may have replaced cached products
+			.doOnSuccess(errors -> {
+				catalogVersion.increment();
+				for (int i = 0; i < products.size(); i++) {
+					Product product = products.get(i);
+					productCache.invalidate(product.getId());
+					if (!errors.containsKey(i)) {
+						productNameIndex.put(product);
+					}
+				}
+			})
+			.transform(metrics.timedMono(SERVICE, "bulkSave"));
+	}
+
+	@Override
+	public Mono<Product> patch(String id, Map<String, Object> changes, Long expectedVersion) {
+		Update update;
+		try {
+			update = toUpdate(changes);
+		} catch (IllegalArgumentException e) {
+			return Mono.error(e);
+		}
+		
+		// Validated by toUpdate
+		String categoryId = changes.get("category") instanceof Map<?, ?> category ? (String) category.get("id") : null;
+		// The same check as @ExistingCategory, from memory
+		if (categoryId != null && !categoryService.exists(categoryId)) {
+			return Mono.error(new IllegalArgumentException("The field error category must be an existing category"));
+		}
+		Mono<Update> named = categoryId != null ? withCategoryName(update, categoryId) : Mono.just(update);
+		// Only the price and the category change the statistics, the previous state is only read when one of them changes.
+		// A write between the read and the update is left to the next rebuild
+		boolean statsChanged = changes.containsKey("price") || changes.containsKey("category");
+		Mono<Optional<Product>> previous = statsChanged 
+				? productDAO.findById(id, ProductFields.PREVIOUS).transform(guard.readMono(SERVICE + ".findById")).map(Optional::of)
+				: Mono.just(Optional.empty());
+		return previous.flatMap(before -> named
+				.flatMap(withName -> productDAO.updateById(id, withName, expectedVersion).transform(guard.writeMono(SERVICE + ".patch")))
+				.doOnNext(updated -> catalogVersion.increment())
+				.doOnNext(updated -> productCache.put(updated.getId(), updated))
+				.doOnNext(productNameIndex::put)
+				.flatMap(updated -> before.isPresent() 
+						? categoryStats.productChanged(before.get(), updated).thenReturn(updated) : Mono.just(updated)))
+			.as(categoryLoader::resolve)
+			// Nothing modified: with an expected version, we tell a stale version apart from a missing product
+			.switchIfEmpty(Mono.defer(() -> expectedVersion == null ? Mono.empty() 
+					: productDAO.existsById(id).transform(guard.readMono(SERVICE + ".existsById")).flatMap(exists -> exists 
+							? Mono.error(new OptimisticLockingFailureException("The product " + id + " does not have the version " + expectedVersion))
+							: Mono.empty())))
+			.transform(metrics.timedMono(SERVICE, "patch"));
+	}
+	
+	// A new category also changes the copy of its name
+	private Mono<Update> withCategoryName(Update update, String categoryId) {
+		return categoryService.findById(categoryId)
+			.map(category -> update.set("categoryName", category.getName()))
+			.switchIfEmpty(Mono.fromSupplier(() -> update.unset("categoryName")));
+	}
+	
+	// Only the fields that the clients can modify are translated into the $set
+	private static Update toUpdate(Map<String, Object> changes) {
+		if (changes.isEmpty()) {
+			throw new IllegalArgumentException("There are no fields to update");
+		}
+		Update update = new Update();
+		changes.forEach((field, value) -> {
+			switch (field) {
+				case "name" -> {
+					if (!(value instanceof String name) || name.isBlank()) {
+						throw new IllegalArgumentException("The field error name must not be null");
+					}
+					update.set("name", name);
+				}
+				case "price" -> {
+					if (!(value instanceof Number price)) {
+						throw new IllegalArgumentException("The field error price must be a number");
+					}
+					update.set("price", price.doubleValue());
+				}
+				case "category" -> {
+					if (!(value instanceof Map<?, ?> category) || !(category.get("id") instanceof String categoryId)) {
+						throw new IllegalArgumentException("The field error category must have an id");
+					}
+					// Only the reference is stored
+					update.set("categoryId", categoryId);
+				}
+				default -> throw new IllegalArgumentException("The field " + field + " can not be updated");
+			}
+		});
+		return update.set("updatedAt", new Date());
+	}
+
+	@Override
+	public Mono<Product> replaceImage(Product product, String imageId) {
+		String previousImageId = product.getImageId();
+		product.setImageId(imageId);
+		return save(product)
+			// Once the product points to the new image, the previous one can be removed
+			.flatMap(saved -> previousImageId != null 
+					? productImageService.delete(previousImageId).thenReturn(saved) : Mono.just(saved));
 	}
 
 	@Override
 	public Mono<Void> delete(Product product) {
-		return productDAO.delete(product);
+		Mono<Void> deleted = productDAO.delete(product).transform(guard.writeMono(SERVICE + ".delete"));
+		if (product.getImageId() != null) {
+			// The image is not referenced by anyone else, so it goes with the product
+			deleted = deleted.then(productImageService.delete(product.getImageId()));
+		}
+		// Whatever happens with the delete, the cached product can not be trusted anymore
+		return deleted
+			.then(categoryStats.productRemoved(product))
+			.doOnSuccess(done -> productNameIndex.remove(product.getId()))
+			.doFinally(signal -> {
+				productCache.invalidate(product.getId());
+				catalogVersion.increment();
+			})
+			.transform(metrics.timedMono(SERVICE, "delete"));
+	}
+	
+	@Override
+	public Mono<Long> deleteById(String id) {
+		return productDAO.removeById(id)
+			.transform(guard.writeMono(SERVICE + ".deleteById"))
+			.flatMap(this::afterDelete)
+			.flatMap(removed -> categoryStats.productRemoved(removed).thenReturn(removed))
+			// map and not thenReturn, which would also give 1 when nothing was removed
+			.map(removed -> 1L)
+			// Nothing was removed
+			.defaultIfEmpty(0L)
+			.doFinally(signal -> {
+				productCache.invalidate(id);
+				catalogVersion.increment();
+			})
+			.transform(metrics.timedMono(SERVICE, "deleteById"));
+	}
+	
+	@Override
+	public Mono<Long> deleteAll(ProductDeleteFilterDTO filter) {
+		if (filter.isEmpty()) {
+			// A filter without conditions would delete the whole catalog
+			return Mono.error(new IllegalArgumentException("The filter must have at least one condition"));
+		}
+		return Mono.defer(() -> {
+				// The categories of the removed products are computed again once, not once per product
+				Set<String> categories = ConcurrentHashMap.newKeySet();
+				return productDAO.removeAll(filter)
+					.transform(guard.writeFlux(SERVICE + ".deleteAll"))
+					.doOnNext(removed -> productCache.invalidate(removed.getId()))
+					.doOnNext(removed -> {
+						if (removed.getCategoryId() != null) {
+							categories.add(removed.getCategoryId());
+						}
+					})
+					.flatMap(this::afterDelete, DELETE_CONCURRENCY)
+					.count()
+					.flatMap(count -> categoryStats.refresh(categories).thenReturn(count));
+			})
+			.doFinally(signal -> catalogVersion.increment())
+			.transform(metrics.timedMono(SERVICE, "deleteAll"));
+	}
+	
+	// The image is not referenced by anyone else, so it goes with the product
+	private Mono<Product> afterDelete(Product removed) {
+		productNameIndex.remove(removed.getId());
+		return removed.getImageId() != null 
+				? productImageService.delete(removed.getImageId()).thenReturn(removed) : Mono.just(removed);
 	}
 
 }
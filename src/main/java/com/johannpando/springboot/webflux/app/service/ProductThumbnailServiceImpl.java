@@ -0,0 +1,152 @@
+package com.johannpando.springboot.webflux.app.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsResource;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import com.johannpando.springboot.webflux.app.cache.ReactiveCache;
+import com.johannpando.springboot.webflux.app.dto.ImageVariantDTO;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+// The thumbnails are stored in GridFS next to the original, with the id of the original and the size in the metadata
+@Service
+public class ProductThumbnailServiceImpl implements IProductThumbnailService {
+
+	public static final String VARIANT_OF = "variantOf";
+	public static final String SIZE = "size";
+	
+	@Autowired
+	private ReactiveGridFsTemplate gridFsTemplate;
+	
+	@Autowired
+	private IProductImageService productImageService;
+	
+	@Autowired
+	private ReactiveCache<ImageVariantDTO> imageVariantCache;
+	
+	// Decoding and resizing is CPU-bound and blocking, it never runs on the event loop
+	@Autowired
+	private Scheduler thumbnailScheduler;
+	
+	// Longest side of each thumbnail, in pixels
+	@Value("${app.images.thumbnails.sizes}")
+	private Set<Integer> sizes;
+	
+	@Value("${app.images.thumbnails.jpeg-quality}")
+	private float jpegQuality;
+	
+	@Override
+	public Mono<ImageVariantDTO> findThumbnail(String imageId, int size) {
+		if (!sizes.contains(size)) {
+			return Mono.error(new IllegalArgumentException("The size must be one of " + sizes));
+		}
+		// Concurrent requests of the same thumbnail share the lookup and the resize
+		return imageVariantCache.get(imageId + ":" + size, key -> findStored(imageId, size)
+				.switchIfEmpty(Mono.defer(() -> create(imageId, size))));
+	}
+	
+	private Mono<ImageVariantDTO> findStored(String imageId, int size) {
+		Query query = new Query(Criteria.where("metadata." + VARIANT_OF).is(imageId).and("metadata." + SIZE).is(size));
+		// Two instances may have created the same thumbnail at the same time, any of them is good
+		return gridFsTemplate.find(query)
+			.next()
+			.flatMap(gridFsTemplate::getResource)
+			.flatMap(this::read);
+	}
+	
+	private Mono<ImageVariantDTO> create(String imageId, int size) {
+		return productImageService.findById(imageId)
+			.flatMap(this::read)
+			.flatMap(original -> Mono.fromCallable(() -> resize(original.getContent(), size))
+				.subscribeOn(thumbnailScheduler))
+			.flatMap(thumbnail -> {
+				Document metadata = new Document(VARIANT_OF, imageId).append(SIZE, size);
+				return gridFsTemplate.store(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(thumbnail.getContent())), 
+						imageId + "-" + size, thumbnail.getContentType(), metadata)
+					.map(id -> new ImageVariantDTO(id.toHexString(), thumbnail.getContentType(), thumbnail.getContent()));
+			});
+	}
+	
+	private Mono<ImageVariantDTO> read(ReactiveGridFsResource resource) {
+		int maxSize = (int) Math.min(Integer.MAX_VALUE, productImageService.getMaxImageSize());
+		return resource.getGridFSFile()
+			// An original larger than an upload may be (stored before the limit) is never loaded into memory, it has no thumbnails
+			.filter(file -> file.getLength() <= maxSize)
+			.flatMap(file -> DataBufferUtils.join(resource.getDownloadStream(), maxSize)
+				.map(buffer -> {
+					byte[] content = new byte[buffer.readableByteCount()];
+					buffer.read(content);
+					DataBufferUtils.release(buffer);
+					// GridFS keeps the content type given on upload in the metadata of the file
+					String contentType = file.getMetadata() != null ? file.getMetadata().getString("_contentType") : null;
+					return new ImageVariantDTO(file.getObjectId().toHexString(), 
+							contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE, content);
+				}));
+	}
+	
+	// Null, so an empty Mono, when ImageIO can not read the image
+	private ImageVariantDTO resize(byte[] image, int size) throws IOException {
+		BufferedImage original = ImageIO.read(new ByteArrayInputStream(image));
+		if (original == null) {
+			return null;
+		}
+		// Never bigger than the original
+		double scale = Math.min(1.0, (double) size / Math.max(original.getWidth(), original.getHeight()));
+		int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+		boolean transparent = original.getColorModel().hasAlpha();
+		
+		BufferedImage thumbnail = new BufferedImage(width, height, transparent ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = thumbnail.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(original, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (transparent) {
+			// JPEG has no transparency
+			ImageIO.write(thumbnail, "png", out);
+			return new ImageVariantDTO(null, MediaType.IMAGE_PNG_VALUE, out.toByteArray());
+		}
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(output);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(jpegQuality);
+			writer.write(null, new IIOImage(thumbnail, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return new ImageVariantDTO(null, MediaType.IMAGE_JPEG_VALUE, out.toByteArray());
+	}
+}
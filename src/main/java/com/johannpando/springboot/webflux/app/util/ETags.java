@@ -0,0 +1,28 @@
+package com.johannpando.springboot.webflux.app.util;
+
+// The ETag of a product is its version, so If-Match maps to the optimistic locking of Mongo
+public final class ETags {
+
+	private ETags() {
+	}
+	
+	public static String of(Long version) {
+		return "\"" + version + "\"";
+	}
+	
+	// Returns the version expected by an If-Match header, null for "*" (any version)
+	public static Long parseVersion(String ifMatch) {
+		String value = ifMatch.trim();
+		if ("*".equals(value)) {
+			return null;
+		}
+		if (value.startsWith("W/")) {
+			value = value.substring(2);
+		}
+		try {
+			return Long.valueOf(value.replace("\"", ""));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The If-Match header " + ifMatch + " is not a version of the product");
+		}
+	}
+}
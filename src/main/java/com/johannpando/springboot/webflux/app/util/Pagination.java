@@ -0,0 +1,44 @@
+package com.johannpando.springboot.webflux.app.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+
+// Helpers shared by the controller and the handler to page through the products
+public final class Pagination {
+
+	// Response header with the cursor of the next page, absent on the last page
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	
+	private static final String CURSOR_PREFIX = "id:";
+	
+	private Pagination() {
+	}
+	
+	// The cursor is opaque for the clients, so we can change its content without breaking them
+	public static String encodeCursor(String lastId) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(CURSOR_PREFIX.concat(lastId).getBytes(StandardCharsets.UTF_8));
+	}
+	
+	// Returns the id of the last product served, or throws IllegalArgumentException if the cursor is not valid
+	public static String decodeCursor(String cursor) {
+		String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		if (!decoded.startsWith(CURSOR_PREFIX) || !ObjectId.isValid(decoded.substring(CURSOR_PREFIX.length()))) {
+			throw new IllegalArgumentException("The cursor " + cursor + " is not valid");
+		}
+		return decoded.substring(CURSOR_PREFIX.length());
+	}
+	
+	// Applies the default page size and never lets the client ask for more than the maximum
+	public static int resolveLimit(Integer limit, int defaultLimit, int maxLimit) {
+		if (limit == null) {
+			return defaultLimit;
+		}
+		if (limit < 1) {
+			throw new IllegalArgumentException("The limit must be greater than 0");
+		}
+		return Math.min(limit, maxLimit);
+	}
+}
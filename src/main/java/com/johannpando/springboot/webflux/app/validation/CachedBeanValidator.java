@@ -0,0 +1,205 @@
+package com.johannpando.springboot.webflux.app.validation;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.SmartValidator;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.groups.Default;
+import jakarta.validation.metadata.BeanDescriptor;
+import jakarta.validation.metadata.ConstraintDescriptor;
+import jakarta.validation.metadata.PropertyDescriptor;
+
+// Bean Validation with the constraints of each class read once: a valid object goes through a list of
+// precompiled checks (getters generated with LambdaMetafactory), without reflection and without allocating.
+// Only an invalid object goes to Hibernate Validator, which builds the same errors as before, so the
+// controller (@Valid) and the handlers give exactly the same answers
+public class CachedBeanValidator implements SmartValidator {
+	
+	// Deeper than this the object is left to Hibernate Validator, which knows about cycles
+	private static final int MAX_DEPTH = 16;
+	
+	private final LocalValidatorFactoryBean delegate;
+	
+	// The plan of every class, computed the first time an object of the class is validated
+	private final ClassValue<Plan> plans = new ClassValue<>() {
+		@Override
+		protected Plan computeValue(Class<?> type) {
+			return compile(type);
+		}
+	};
+	
+	public CachedBeanValidator(LocalValidatorFactoryBean delegate) {
+		this.delegate = delegate;
+	}
+	
+	// Checks of the properties of a class, or null when one of its constraints is not supported here
+	private static final class Plan {
+		
+		private final Check[] checks;
+		
+		private Plan(List<Check> checks) {
+			this.checks = checks.toArray(new Check[0]);
+		}
+	}
+	
+	private static final class Check {
+		
+		private final Function<Object, Object> getter;
+		
+		// Null when the property only cascades (@Valid)
+		private final Predicate<Object> constraint;
+		
+		private final boolean cascaded;
+		
+		private Check(Function<Object, Object> getter, Predicate<Object> constraint, boolean cascaded) {
+			this.getter = getter;
+			this.constraint = constraint;
+			this.cascaded = cascaded;
+		}
+	}
+	
+	@Override
+	public boolean supports(Class<?> clazz) {
+		return delegate.supports(clazz);
+	}
+	
+	@Override
+	public void validate(Object target, Errors errors) {
+		if (!isValid(target)) {
+			delegate.validate(target, errors);
+		}
+	}
+	
+	@Override
+	public void validate(Object target, Errors errors, Object... validationHints) {
+		// The groups are not compiled, they go the slow way
+		if (validationHints.length > 0) {
+			delegate.validate(target, errors, validationHints);
+		} else {
+			validate(target, errors);
+		}
+	}
+	
+	// The errors of the fields, an empty list (not allocated) when the object is valid
+	public List<FieldError> fieldErrors(Object target) {
+		if (isValid(target)) {
+			return List.of();
+		}
+		Errors errors = new BeanPropertyBindingResult(target, target.getClass().getName());
+		delegate.validate(target, errors);
+		return errors.getFieldErrors();
+	}
+	
+	public boolean isValid(Object target) {
+		return isValid(target, 0);
+	}
+	
+	private boolean isValid(Object target, int depth) {
+		Plan plan = plans.get(target.getClass());
+		if (plan == null || depth > MAX_DEPTH) {
+			// Whatever the compiled checks can not tell, Hibernate Validator does
+			return delegate.validate(target).isEmpty();
+		}
+		for (Check check : plan.checks) {
+			Object value = check.getter.apply(target);
+			if (check.constraint != null && !check.constraint.test(value)) {
+				return false;
+			}
+			if (check.cascaded && value != null && !isValid(value, depth + 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private Plan compile(Class<?> type) {
+		BeanDescriptor bean = delegate.getConstraintsForClass(type);
+		// Class level constraints are not compiled
+		if (!bean.getConstraintDescriptors().isEmpty()) {
+			return null;
+		}
+		List<Check> checks = new ArrayList<>();
+		for (PropertyDescriptor property : bean.getConstrainedProperties()) {
+			if (!property.getConstrainedContainerElementTypes().isEmpty()) {
+				return null;
+			}
+			Function<Object, Object> getter = getter(type, property.getPropertyName());
+			if (getter == null) {
+				return null;
+			}
+			for (ConstraintDescriptor<?> descriptor : property.getConstraintDescriptors()) {
+				Predicate<Object> constraint = constraint(descriptor);
+				if (constraint == null) {
+					return null;
+				}
+				checks.add(new Check(getter, constraint, false));
+			}
+			if (property.isCascaded()) {
+				checks.add(new Check(getter, null, true));
+			}
+		}
+		return new Plan(checks);
+	}
+	
+	// The constraints that can be checked without a ConstraintValidatorContext: @NotNull, and the
+	// constraints of this package, whose validators are created (and injected) by the factory of Spring
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Predicate<Object> constraint(ConstraintDescriptor<?> descriptor) {
+		if (!descriptor.getGroups().equals(Set.of(Default.class)) || !descriptor.getComposingConstraints().isEmpty()) {
+			return null;
+		}
+		if (descriptor.getAnnotation() instanceof NotNull) {
+			return value -> value != null;
+		}
+		List<? extends Class<? extends ConstraintValidator<?, ?>>> validatorClasses = descriptor.getConstraintValidatorClasses();
+		if (validatorClasses.size() != 1 || validatorClasses.get(0).getPackage() != CachedBeanValidator.class.getPackage()) {
+			return null;
+		}
+		ConstraintValidator validator = delegate.getConstraintValidatorFactory().getInstance(validatorClasses.get(0));
+		validator.initialize(descriptor.getAnnotation());
+		return value -> validator.isValid(value, null);
+	}
+	
+	// A generated Function that calls the getter, as fast as a direct call once inlined
+	@SuppressWarnings("unchecked")
+	private static Function<Object, Object> getter(Class<?> type, String property) {
+		java.beans.PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, property);
+		Method read = descriptor != null ? descriptor.getReadMethod() : null;
+		if (read == null) {
+			return null;
+		}
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+			MethodHandle handle = lookup.unreflect(read);
+			CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+					MethodType.methodType(Object.class, Object.class), handle, MethodType.methodType(Object.class, type));
+			return (Function<Object, Object>) site.getTarget().invokeExact();
+		} catch (Throwable e) {
+			// Reflection is still better than no compiled check at all
+			return target -> {
+				try {
+					return read.invoke(target);
+				} catch (ReflectiveOperationException ex) {
+					throw new IllegalStateException("The property " + property + " of " + type.getName() + " can not be read", ex);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.johannpando.springboot.webflux.app.validation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import jakarta.validation.Constraint;
+import jakarta.validation.Payload;
+
+// The category has the id of one of the categories collection (checked in memory, see CategorySnapshot)
+@Documented
+@Constraint(validatedBy = ExistingCategoryValidator.class)
+@Target({ ElementType.FIELD, ElementType.PARAMETER })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ExistingCategory {
+
+	String message() default "must be an existing category";
+	
+	Class<?>[] groups() default {};
+	
+	Class<? extends Payload>[] payload() default {};
+}
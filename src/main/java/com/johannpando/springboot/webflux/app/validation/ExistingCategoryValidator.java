@@ -0,0 +1,26 @@
+package com.johannpando.springboot.webflux.app.validation;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.service.ICategoryService;
+
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.ConstraintValidatorContext;
+
+// Created by the validator of Spring, which injects the service. The same check for the controller (@Valid)
+// and for the handler (Validator.validate), with no round-trip to Mongo
+public class ExistingCategoryValidator implements ConstraintValidator<ExistingCategory, Category> {
+
+	@Autowired(required = false)
+	private ICategoryService categoryService;
+	
+	@Override
+	public boolean isValid(Category category, ConstraintValidatorContext context) {
+		// A missing category is reported by @NotNull, and a validator built outside of Spring has nothing to check against
+		if (category == null || categoryService == null) {
+			return true;
+		}
+		return categoryService.exists(category.getId());
+	}
+}
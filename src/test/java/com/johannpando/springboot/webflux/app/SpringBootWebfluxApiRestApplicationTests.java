@@ -1,25 +1,51 @@
 package com.johannpando.springboot.webflux.app;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
 
 import org.assertj.core.api.Assertions;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
 
 import com.johannpando.springboot.webflux.app.document.Category;
 import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.BulkItemResultDTO;
+import com.johannpando.springboot.webflux.app.dto.CatalogImportResultDTO;
+import com.johannpando.springboot.webflux.app.dto.CategoryStatsDTO;
 import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.seed.CatalogSeeder;
 import com.johannpando.springboot.webflux.app.service.ICategoryService;
 import com.johannpando.springboot.webflux.app.service.IProductService;
+import com.johannpando.springboot.webflux.app.util.ETags;
+import com.johannpando.springboot.webflux.app.util.Pagination;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 //@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT) // Initiate a real server with a random port 
 @AutoConfigureWebTestClient
@@ -38,6 +64,15 @@ class SpringBootWebfluxApiRestApplicationTests {
 	@Autowired
 	private ICategoryService categoryService;
 	
+	@Autowired
+	private CatalogSeeder catalogSeeder;
+	
+	// The fixtures are inserted while the context starts, the tests read them
+	@BeforeEach
+	public void waitForTheCatalog() {
+		catalogSeeder.completion().block(Duration.ofSeconds(30));
+	}
+	
 	@Test
 	public void getAllProducts() {
 		
@@ -55,6 +90,95 @@ class SpringBootWebfluxApiRestApplicationTests {
 		});
 	}
 	
+	@Test
+	public void getProductsPageTest() {
+		
+		webTestClient
+		.get() // Make a GET request asking for a page of one product
+		.uri("/api/v2/products?limit=1")
+		.accept(MediaType.APPLICATION_JSON)
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().exists(Pagination.NEXT_CURSOR_HEADER) // There are more products, so we receive the next cursor
+		.expectBodyList(Product.class).hasSize(1)
+		.consumeWith(response -> {
+			String cursor = response.getResponseHeaders().getFirst(Pagination.NEXT_CURSOR_HEADER);
+			Product first = response.getResponseBody().get(0);
+			webTestClient.get() // The next page starts after the last product received
+			.uri("/api/v2/products?limit=1&cursor={cursor}", cursor)
+			.accept(MediaType.APPLICATION_JSON)
+			.exchange()
+			.expectStatus().isOk()
+			.expectBodyList(Product.class).hasSize(1)
+			.consumeWith(r -> Assertions.assertThat(r.getResponseBody().get(0).getId()).isNotEqualTo(first.getId()));
+		});
+		
+		webTestClient
+		.get() // A cursor that we have not generated is rejected
+		.uri("/api/v2/products?cursor=not-a-cursor")
+		.exchange()
+		.expectStatus().isBadRequest();
+	}
+	
+	@Test
+	public void getProductsProjectionTest() {
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products?fields=name") // Only the name (and the id) is read from Mongo
+		.accept(MediaType.APPLICATION_JSON)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody()
+		.jsonPath("$[0].id").isNotEmpty()
+		.jsonPath("$[0].name").isNotEmpty()
+		.jsonPath("$[0].price").isEmpty();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products?fields=unknown") // A field that the products do not have
+		.exchange()
+		.expectStatus().isBadRequest();
+	}
+	
+	@Test
+	public void streamProductsTest() {
+		
+		Flux<Product> products = webTestClient
+		.get()
+		.uri("/api/v3/products")
+		.accept(MediaType.APPLICATION_NDJSON) // Ask for one product per line instead of a JSON array
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+		.returnResult(Product.class)
+		.getResponseBody(); // The products are decoded while they arrive
+		
+		StepVerifier.create(products.take(1))
+		.assertNext(p -> Assertions.assertThat(p.getId()).isNotEmpty())
+		.verifyComplete();
+	}
+	
+	@Test
+	public void streamChangesTest() {
+		
+		// The stream never completes, we only check that it is open (the changes need Mongo as a replica set)
+		Flux<String> changes = webTestClient
+		.get()
+		.uri("/api/v2/products/changes?collection=products")
+		.accept(MediaType.TEXT_EVENT_STREAM)
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+		.returnResult(String.class)
+		.getResponseBody();
+		
+		StepVerifier.create(changes)
+		.expectSubscription()
+		.thenCancel()
+		.verify();
+	}
+	
 	@Test
 	public void getProductById() {
 		
@@ -111,6 +235,52 @@ class SpringBootWebfluxApiRestApplicationTests {
 		});
 	}
 
+	@Test
+	public void conditionalGetTest() {
+		Product product = productService.findAll().blockFirst();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products/{id}", Collections.singletonMap("id", product.getId()))
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().exists(HttpHeaders.LAST_MODIFIED);
+		
+		// The client already has the current version
+		webTestClient
+		.get()
+		.uri("/api/v2/products/{id}", Collections.singletonMap("id", product.getId()))
+		.header(HttpHeaders.IF_NONE_MATCH, ETags.of(product.getVersion()))
+		.exchange()
+		.expectStatus().isNotModified()
+		.expectBody().isEmpty();
+		
+		String eTag = webTestClient
+		.get()
+		.uri("/api/v2/products")
+		.exchange()
+		.expectStatus().isOk()
+		.returnResult(String.class)
+		.getResponseHeaders()
+		.getETag();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products")
+		.header(HttpHeaders.IF_NONE_MATCH, eTag)
+		.exchange()
+		.expectStatus().isNotModified();
+		
+		// Any write changes the version of the catalog
+		productService.save(product).block();
+		webTestClient
+		.get()
+		.uri("/api/v2/products")
+		.header(HttpHeaders.IF_NONE_MATCH, eTag)
+		.exchange()
+		.expectStatus().isOk();
+	}
+	
 	@Test
 	public void updateProductTest() {
 		
@@ -134,6 +304,29 @@ class SpringBootWebfluxApiRestApplicationTests {
 		.jsonPath("$.id").isNotEmpty()
 		.jsonPath("$.name").isEqualTo("New Product 365")
 		.jsonPath("$.price").isEqualTo(2500);
+		
+		// The controller updates the name too
+		webTestClient
+		.put()
+		.uri("/api/products/{id}", Collections.singletonMap("id", product.getId()))
+		.bodyValue(new Product("New Product 366", 2600, category))
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody()
+		.jsonPath("$.name").isEqualTo("New Product 366")
+		.jsonPath("$.price").isEqualTo(2600);
+		
+		// A category that does not exist is rejected by both
+		Category unknown = new Category("Unknown");
+		unknown.setId(new ObjectId().toHexString());
+		for (String uri : List.of("/api/v2/products/{id}", "/api/products/{id}")) {
+			webTestClient
+			.put()
+			.uri(uri, Collections.singletonMap("id", product.getId()))
+			.bodyValue(new Product("New Product 367", 2700, unknown))
+			.exchange()
+			.expectStatus().isBadRequest();
+		}
 	}
 	
 	@Test
@@ -160,6 +353,18 @@ class SpringBootWebfluxApiRestApplicationTests {
 		.expectStatus().isNotFound(); // If the product has been eliminated and we tried to find, the response should be Not Found status
 		//.expectBody()
 		//.isEmpty();
+		
+		webTestClient
+		.delete()
+		.uri("/api/v2/products/{id}", Collections.singletonMap("id", productId))
+		.exchange()
+		.expectStatus().isNotFound(); // The product has already been deleted, there is nothing to delete
+		
+		webTestClient
+		.delete()
+		.uri("/api/products/{id}", Collections.singletonMap("id", new ObjectId().toHexString()))
+		.exchange()
+		.expectStatus().isNotFound(); // The same for the controller with an id that never existed
 	}
 	
 	@Test
@@ -190,4 +395,466 @@ class SpringBootWebfluxApiRestApplicationTests {
 		.jsonPath("$.price").isEqualTo(1024);
 	}
 	
+	@Test
+	public void uploadAndGetImageTest() {
+		Product product = productService.findAll().blockFirst();
+		byte[] image = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+		
+		MultipartBodyBuilder multipart = new MultipartBodyBuilder();
+		multipart.part("file", new ByteArrayResource(image)).filename("image.bin"); // The image is sent as a multipart file
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/{id}/image", Collections.singletonMap("id", product.getId()))
+		.body(BodyInserters.fromMultipartData(multipart.build()))
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody()
+		.jsonPath("$.imageId").isNotEmpty();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products/{id}/image", Collections.singletonMap("id", product.getId()))
+		.header(HttpHeaders.RANGE, "bytes=2-4") // Only a part of the image
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+		.expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 2-4/10")
+		.expectBody(byte[].class).isEqualTo(new byte[] { 3, 4, 5 });
+		
+		// One byte more than app.images.max-size
+		MultipartBodyBuilder tooLarge = new MultipartBodyBuilder();
+		tooLarge.part("file", new ByteArrayResource(new byte[5 * 1024 * 1024 + 1])).filename("large.bin");
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/{id}/image", Collections.singletonMap("id", product.getId()))
+		.body(BodyInserters.fromMultipartData(tooLarge.build()))
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+	}
+	
+	@Test
+	public void uploadBase64ImageTest() {
+		Product product = productService.findAll().blockFirst();
+		byte[] image = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/{id}/image", Collections.singletonMap("id", product.getId()))
+		.contentType(MediaType.TEXT_PLAIN) // The image is sent as Base64 text and decoded while it arrives
+		.bodyValue(Base64.getEncoder().encodeToString(image))
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody()
+		.jsonPath("$.imageId").isNotEmpty();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products/{id}/image", Collections.singletonMap("id", product.getId()))
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody(byte[].class).isEqualTo(image);
+	}
+	
+	@Test
+	public void thumbnailTest() throws IOException {
+		Product product = productService.findAll().blockFirst();
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB), "png", image);
+		
+		MultipartBodyBuilder multipart = new MultipartBodyBuilder();
+		multipart.part("file", new ByteArrayResource(image.toByteArray())).filename("image.png");
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/{id}/image", Collections.singletonMap("id", product.getId()))
+		.body(BodyInserters.fromMultipartData(multipart.build()))
+		.exchange()
+		.expectStatus().isCreated();
+		
+		// The longest side is 64 pixels, the aspect ratio is kept
+		byte[] thumbnail = webTestClient
+		.get()
+		.uri("/api/v2/products/{id}/image?size=64", Collections.singletonMap("id", product.getId()))
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().contentType(MediaType.IMAGE_JPEG)
+		.expectBody(byte[].class)
+		.returnResult()
+		.getResponseBody();
+		BufferedImage resized = ImageIO.read(new ByteArrayInputStream(thumbnail));
+		Assertions.assertThat(resized.getWidth()).isEqualTo(64);
+		Assertions.assertThat(resized.getHeight()).isEqualTo(32);
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products/{id}/image?size=100", Collections.singletonMap("id", product.getId()))
+		.exchange()
+		.expectStatus().isBadRequest(); // Not one of the sizes
+	}
+	
+	@Test
+	public void bulkProductsTest() {
+		Category category = categoryService.findAll().blockFirst();
+		
+		ImageProductDTO valid = new ImageProductDTO();
+		valid.setProduct(new Product("Bulk Product", 10, category));
+		ImageProductDTO invalid = new ImageProductDTO(); // Without product, so it does not pass the validation
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/bulk")
+		.contentType(MediaType.APPLICATION_NDJSON) // One product per line
+		.body(Flux.just(valid, invalid), ImageProductDTO.class)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBodyList(BulkItemResultDTO.class)
+		.consumeWith(response -> {
+			List<BulkItemResultDTO> results = response.getResponseBody();
+			Assertions.assertThat(results).hasSize(2);
+			Assertions.assertThat(results.get(0).getStatus()).isEqualTo(BulkItemResultDTO.CREATED);
+			Assertions.assertThat(results.get(0).getId()).isNotEmpty();
+			Assertions.assertThat(results.get(1).getStatus()).isEqualTo(BulkItemResultDTO.INVALID);
+		});
+		
+		// An upsert without createAt keeps the creation date of the stored product
+		String id = new ObjectId().toHexString();
+		Product first = new Product("Bulk Upsert", 10, category);
+		first.setId(id);
+		productService.bulkSave(List.of(first)).block();
+		Date createAt = productService.findById(id).block().getCreateAt();
+		Assertions.assertThat(createAt).isNotNull();
+		
+		Product again = new Product("Bulk Upsert Renamed", 11, category);
+		again.setId(id);
+		productService.bulkSave(List.of(again)).block();
+		Product updated = productService.findById(id).block();
+		Assertions.assertThat(updated.getName()).isEqualTo("Bulk Upsert Renamed");
+		Assertions.assertThat(updated.getCreateAt()).isEqualTo(createAt);
+	}
+	
+	@Test
+	public void exportAndImportCatalogTest() {
+		// The export of the catalog, compressed
+		byte[] export = webTestClient
+		.get()
+		.uri("/api/v2/products/export")
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().contentType("application/gzip")
+		.expectHeader().value(HttpHeaders.CONTENT_DISPOSITION, disposition -> Assertions.assertThat(disposition).contains(".ndjson.gz"))
+		.expectBody(byte[].class)
+		.returnResult()
+		.getResponseBody();
+		
+		Assertions.assertThat(export).startsWith((byte) 0x1f, (byte) 0x8b);
+		
+		// Imported again as it is, every category and product is an upsert of itself
+		webTestClient
+		.post()
+		.uri("/api/v2/products/import")
+		.contentType(MediaType.parseMediaType("application/gzip"))
+		.bodyValue(export)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody(CatalogImportResultDTO.class)
+		.consumeWith(response -> {
+			CatalogImportResultDTO result = response.getResponseBody();
+			Assertions.assertThat(result.getCategories()).isGreaterThanOrEqualTo(3);
+			Assertions.assertThat(result.getProducts()).isGreaterThanOrEqualTo(3);
+			Assertions.assertThat(result.getFailed()).isZero();
+		});
+		
+		// The products are validated like on creation: one without price and one with a category that does not exist
+		String invalid = "{\"product\":{\"name\":\"Without price\",\"category\":{\"id\":\"c1\",\"name\":\"Unknown\"}}}\n"
+				+ "{\"product\":{\"name\":\"Unknown category\",\"price\":10,\"category\":{\"id\":\"" + new ObjectId().toHexString() + "\",\"name\":\"Unknown\"}}}\n";
+		webTestClient
+		.post()
+		.uri("/api/v2/products/import")
+		.contentType(MediaType.APPLICATION_NDJSON)
+		.bodyValue(invalid)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody(CatalogImportResultDTO.class)
+		.consumeWith(response -> {
+			CatalogImportResultDTO result = response.getResponseBody();
+			Assertions.assertThat(result.getProducts()).isZero();
+			Assertions.assertThat(result.getFailed()).isEqualTo(2);
+		});
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products/export?images=png")
+		.exchange()
+		.expectStatus().isBadRequest(); // Only omit or base64
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/import")
+		.contentType(MediaType.parseMediaType("application/gzip"))
+		.bodyValue("not gzip".getBytes())
+		.exchange()
+		.expectStatus().isBadRequest();
+	}
+	
+	@Test
+	public void categoriesTest() {
+		Category created = webTestClient
+		.post()
+		.uri("/api/v2/categories")
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(new Category("Tablets"))
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody(Category.class)
+		.returnResult()
+		.getResponseBody();
+		
+		// Served from the snapshot, reloaded before the answer of the create
+		webTestClient
+		.get()
+		.uri("/api/v2/categories")
+		.exchange()
+		.expectStatus().isOk()
+		.expectBodyList(Category.class)
+		.value(categories -> Assertions.assertThat(categories).extracting(Category::getId).contains(created.getId()));
+		
+		webTestClient
+		.put()
+		.uri("/api/v2/categories/{id}", Collections.singletonMap("id", created.getId()))
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(new Category("Tablets and e-readers"))
+		.exchange()
+		.expectStatus().isOk();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/categories/{id}", Collections.singletonMap("id", created.getId()))
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody()
+		.jsonPath("$.name").isEqualTo("Tablets and e-readers");
+		
+		// A product can not reference a category that does not exist
+		Category unknown = new Category("Unknown");
+		unknown.setId("000000000000000000000000");
+		ImageProductDTO invalid = new ImageProductDTO();
+		invalid.setProduct(new Product("Product without category", 10, unknown));
+		webTestClient
+		.post()
+		.uri("/api/v2/products")
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(invalid)
+		.exchange()
+		.expectStatus().isBadRequest();
+		
+		// A category with products can not be deleted
+		Product product = productService.save(new Product("Tablet", 300, created)).block();
+		webTestClient
+		.delete()
+		.uri("/api/v2/categories/{id}", Collections.singletonMap("id", created.getId()))
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.CONFLICT);
+		
+		productService.delete(product).block();
+		webTestClient
+		.delete()
+		.uri("/api/v2/categories/{id}", Collections.singletonMap("id", created.getId()))
+		.exchange()
+		.expectStatus().isNoContent();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/categories/{id}", Collections.singletonMap("id", created.getId()))
+		.exchange()
+		.expectStatus().isNotFound();
+	}
+	
+	@Test
+	public void categoryStatsTest() {
+		Category category = categoryService.findAll().blockFirst();
+		
+		// The rollup and the aggregation over the products give the same statistics
+		List<CategoryStatsDTO> live = webTestClient
+		.get()
+		.uri("/api/v2/categories/stats?source=live")
+		.exchange()
+		.expectStatus().isOk()
+		.expectBodyList(CategoryStatsDTO.class)
+		.returnResult()
+		.getResponseBody();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/categories/stats")
+		.exchange()
+		.expectStatus().isOk()
+		.expectBodyList(CategoryStatsDTO.class)
+		// The sums may be added in another order, the counts are compared
+		.value(rollup -> Assertions.assertThat(rollup)
+				.extracting(CategoryStatsDTO::getCategoryId, CategoryStatsDTO::getCount)
+				.containsExactlyInAnyOrderElementsOf(live.stream()
+						.map(stats -> Assertions.tuple(stats.getCategoryId(), stats.getCount())).toList()));
+		
+		// A new product is counted in the rollup of its category
+		long before = count(live, category.getId());
+		productService.save(new Product("Stats Product", 1_000_000, category)).block();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/categories/stats")
+		.exchange()
+		.expectStatus().isOk()
+		.expectBodyList(CategoryStatsDTO.class)
+		.value(rollup -> {
+			Assertions.assertThat(count(rollup, category.getId())).isEqualTo(before + 1);
+			Assertions.assertThat(stats(rollup, category.getId()).getMaxPrice()).isEqualTo(1_000_000.0);
+		});
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/categories/stats?source=cache")
+		.exchange()
+		.expectStatus().isBadRequest();
+	}
+	
+	private static long count(List<CategoryStatsDTO> stats, String categoryId) {
+		return stats(stats, categoryId).getCount();
+	}
+	
+	// Exactly one row per category, the incremental updates and the rebuilds write the same document
+	private static CategoryStatsDTO stats(List<CategoryStatsDTO> stats, String categoryId) {
+		List<CategoryStatsDTO> rows = stats.stream().filter(stat -> categoryId.equals(stat.getCategoryId())).toList();
+		Assertions.assertThat(rows).hasSize(1);
+		return rows.get(0);
+	}
+	
+	@Test
+	public void patchProductTest() {
+		Product product = productService.findAll().blockFirst();
+		
+		webTestClient
+		.patch()
+		.uri("/api/v2/products/{id}", Collections.singletonMap("id", product.getId()))
+		.header(HttpHeaders.IF_MATCH, ETags.of(product.getVersion())) // We modify the version that we have read
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(Map.of("price", 99.99)) // Only the price changes
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().valueEquals(HttpHeaders.ETAG, ETags.of(product.getVersion() + 1))
+		.expectBody()
+		.jsonPath("$.name").isEqualTo(product.getName())
+		.jsonPath("$.price").isEqualTo(99.99);
+		
+		webTestClient
+		.patch()
+		.uri("/api/v2/products/{id}", Collections.singletonMap("id", product.getId()))
+		.header(HttpHeaders.IF_MATCH, ETags.of(product.getVersion())) // The version is not the current one anymore
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(Map.of("price", 1))
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+	}
+	
+	@Test
+	public void searchAndTypeaheadTest() {
+		Category category = categoryService.save(new Category("Tablet")).block();
+		Product product = new Product("Galaxy Tab", 320.0, category);
+		product.setCreateAt(new Date());
+		productService.save(product).block();
+		
+		// The word is in the name of the category, not in the name of the product
+		webTestClient
+		.get()
+		.uri("/api/v2/products/search?q=tablet")
+		.accept(MediaType.APPLICATION_JSON)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody()
+		.jsonPath("$[0].name").isEqualTo("Galaxy Tab")
+		.jsonPath("$[0].score").isNumber();
+		
+		webTestClient
+		.get()
+		.uri("/api/v2/products/typeahead?prefix=gal")
+		.accept(MediaType.APPLICATION_JSON)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody()
+		.jsonPath("$[0].id").isEqualTo(product.getId())
+		.jsonPath("$[0].name").isEqualTo("Galaxy Tab");
+	}
+	
+	@Test
+	public void readinessTest() {
+		// The catalog is ready, so is the application
+		webTestClient
+		.get()
+		.uri("/actuator/health/readiness")
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody()
+		.jsonPath("$.status").isEqualTo("UP");
+	}
+	
+	@Test
+	public void prometheusMetricsTest() {
+		webTestClient
+		.get()
+		.uri("/api/v2/products")
+		.exchange()
+		.expectStatus().isOk();
+		
+		// The route, the service and Mongo have been measured
+		webTestClient
+		.get()
+		.uri("/actuator/prometheus")
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody(String.class)
+		.value(body -> Assertions.assertThat(body)
+				.contains("http_server_requests_seconds_bucket")
+				.contains("app_service_flow_duration_seconds")
+				.contains("mongodb_driver_commands_seconds"));
+	}
+	
+	@Test
+	public void deleteProductsTest() {
+		Category category = categoryService.findAll().blockFirst();
+		Product product = productService.save(new Product("Product to delete", 1, category)).block();
+		
+		ProductDeleteFilterDTO filter = new ProductDeleteFilterDTO();
+		filter.setIds(List.of(product.getId()));
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/bulk-delete")
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(filter)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody()
+		.jsonPath("$.deleted").isEqualTo(1);
+		
+		webTestClient
+		.post()
+		.uri("/api/v2/products/bulk-delete")
+		.contentType(MediaType.APPLICATION_JSON)
+		.bodyValue(new ProductDeleteFilterDTO()) // Without conditions it would delete every product
+		.exchange()
+		.expectStatus().isBadRequest();
+	}
+	
+	@Test
+	public void deleteProductsWithoutBodyTest() {
+		webTestClient
+		.post()
+		.uri("/api/v2/products/bulk-delete")
+		.contentType(MediaType.APPLICATION_JSON)
+		.exchange()
+		.expectStatus().isBadRequest()
+		.expectBody()
+		.jsonPath("$[0]").isEqualTo("The filter is required");
+	}
+	
 }
@@ -0,0 +1,52 @@
+package com.johannpando.springboot.webflux.app.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Decoding of ImageProductDTO.imageProduct at different image sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Base64ImageBenchmark {
+
+	@Param({"16384", "262144", "1048576"})
+	private int imageSize;
+	
+	private String base64Image;
+	
+	private byte[] base64Bytes;
+	
+	@Setup
+	public void setUp() {
+		base64Image = BenchmarkFixtures.base64Image(imageSize);
+		base64Bytes = base64Image.getBytes(StandardCharsets.ISO_8859_1);
+	}
+	
+	// What ProductImageServiceImpl.storeBase64 does with the String of the request
+	@Benchmark
+	public byte[] decodeString() {
+		return Base64.getDecoder().decode(base64Image);
+	}
+	
+	// Without the String, the copy of the payload into a String is not paid
+	@Benchmark
+	public byte[] decodeBytes() {
+		return Base64.getDecoder().decode(base64Bytes);
+	}
+}
@@ -0,0 +1,107 @@
+package com.johannpando.springboot.webflux.app.benchmark;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.reactive.result.view.ViewResolver;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.adapter.DefaultServerWebExchange;
+import org.springframework.web.server.i18n.AcceptHeaderLocaleContextResolver;
+import org.springframework.web.server.i18n.LocaleContextResolver;
+import org.springframework.web.server.session.DefaultWebSessionManager;
+import org.springframework.web.server.session.WebSessionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+
+// Objects shared by the benchmarks, built the same way that Spring Boot builds them in the application
+final class BenchmarkFixtures {
+
+	// Same defaults as the ObjectMapper of Spring Boot
+	static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+	
+	static final HandlerStrategies STRATEGIES = HandlerStrategies.builder()
+			.codecs(codecs -> {
+				codecs.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(OBJECT_MAPPER));
+				codecs.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(OBJECT_MAPPER));
+			})
+			.build();
+	
+	// Shared by the exchanges, MockServerWebExchange would create the default codecs on every request
+	private static final ServerCodecConfigurer CODEC_CONFIGURER = ServerCodecConfigurer.create();
+	
+	private static final WebSessionManager SESSION_MANAGER = new DefaultWebSessionManager();
+	
+	private static final LocaleContextResolver LOCALE_RESOLVER = new AcceptHeaderLocaleContextResolver();
+	
+	// Writes the responses with the codecs of the application
+	static final ServerResponse.Context RESPONSE_CONTEXT = new ServerResponse.Context() {
+		@Override
+		public List<HttpMessageWriter<?>> messageWriters() {
+			return STRATEGIES.messageWriters();
+		}
+		
+		@Override
+		public List<ViewResolver> viewResolvers() {
+			return STRATEGIES.viewResolvers();
+		}
+	};
+	
+	private BenchmarkFixtures() {
+	}
+	
+	static LocalValidatorFactoryBean validator() {
+		LocalValidatorFactoryBean validator = new LocalValidatorFactoryBean();
+		validator.afterPropertiesSet();
+		return validator;
+	}
+	
+	static Product product(String id) {
+		Category category = new Category("Mobile Phone");
+		category.setId("c1");
+		Product product = new Product("IPhone " + id, 450.89, category);
+		product.setId(id);
+		product.setCreateAt(new Date());
+		product.setVersion(0L);
+		return product;
+	}
+	
+	// Random bytes behind a PNG signature, the content does not change the cost of Base64 or JSON
+	static byte[] image(int size) {
+		byte[] image = new byte[size];
+		new Random(size).nextBytes(image);
+		byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+		System.arraycopy(signature, 0, image, 0, Math.min(signature.length, size));
+		return image;
+	}
+	
+	static String base64Image(int size) {
+		return Base64.getEncoder().encodeToString(image(size));
+	}
+	
+	static ServerWebExchange exchange(MockServerHttpRequest request) {
+		return new DefaultServerWebExchange(request, new MockServerHttpResponse(), SESSION_MANAGER, CODEC_CONFIGURER, LOCALE_RESOLVER);
+	}
+	
+	// The request that the router would give to the handler, with the path variables already resolved
+	static ServerRequest request(ServerWebExchange exchange, Map<String, String> pathVariables) {
+		exchange.getAttributes().put(RouterFunctions.URI_TEMPLATE_VARIABLES_ATTRIBUTE, pathVariables);
+		return ServerRequest.create(exchange, STRATEGIES.messageReaders());
+	}
+}
@@ -0,0 +1,143 @@
+package com.johannpando.springboot.webflux.app.benchmark;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ProductDeleteFilterDTO;
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+import com.johannpando.springboot.webflux.app.service.IProductService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Products kept in memory, so the benchmarks of the handler do not measure Mongo
+class InMemoryProductService implements IProductService {
+
+	// Sorted by id, like the keyset pagination of the DAO
+	private final ConcurrentSkipListMap<String, Product> products = new ConcurrentSkipListMap<>();
+	
+	InMemoryProductService(int count) {
+		for (int i = 0; i < count; i++) {
+			Product product = BenchmarkFixtures.product(String.format("%06d", i));
+			products.put(product.getId(), product);
+		}
+	}
+	
+	@Override
+	public Flux<Product> findAll() {
+		return Flux.fromIterable(products.values()).map(InMemoryProductService::copy);
+	}
+
+	@Override
+	public Flux<Product> findPage(String afterId, int limit, Set<String> fields) {
+		Map<String, Product> page = afterId == null ? products : products.tailMap(afterId, false);
+		return Flux.fromIterable(page.values()).take(limit).map(InMemoryProductService::copy);
+	}
+
+	@Override
+	public Flux<Product> streamAll(int prefetch, Set<String> fields) {
+		return findAll();
+	}
+
+	@Override
+	public Mono<Product> findById(String id) {
+		return Mono.justOrEmpty(products.get(id)).map(InMemoryProductService::copy);
+	}
+
+	@Override
+	public Mono<Product> findById(String id, Set<String> fields) {
+		return findById(id);
+	}
+
+	@Override
+	public Flux<Product> search(ProductSearchDTO search, Set<String> fields) {
+		return findAll().take(search.getLimit());
+	}
+
+	@Override
+	public Mono<Product> save(Product product) {
+		return Mono.fromSupplier(() -> {
+			Product saved = copy(product);
+			saved.setVersion(saved.getVersion() == null ? 0L : saved.getVersion() + 1);
+			products.put(saved.getId(), saved);
+			return copy(saved);
+		});
+	}
+
+	@Override
+	public Mono<Map<Integer, String>> bulkSave(List<Product> products) {
+		return Flux.fromIterable(products).concatMap(this::save).then(Mono.just(new HashMap<>()));
+	}
+
+	@Override
+	public Mono<Product> patch(String id, Map<String, Object> changes, Long expectedVersion) {
+		if (changes.isEmpty()) {
+			return Mono.error(new IllegalArgumentException("There are no fields to update"));
+		}
+		// The check of the version and the update are atomic, like the findAndModify of the DAO
+		return Mono.fromCallable(() -> products.computeIfPresent(id, (key, current) -> {
+				if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+					throw new OptimisticLockingFailureException("The product " + id + " does not have the version " + expectedVersion);
+				}
+				Product patched = copy(current);
+				changes.forEach((field, value) -> {
+					switch (field) {
+						case "name" -> patched.setName((String) value);
+						case "price" -> patched.setPrice(((Number) value).doubleValue());
+						case "category" -> patched.setCategoryId((String) ((Map<?, ?>) value).get("id"));
+						default -> throw new IllegalArgumentException("The field " + field + " can not be updated");
+					}
+				});
+				patched.setUpdatedAt(new Date());
+				patched.setVersion(current.getVersion() == null ? 1L : current.getVersion() + 1);
+				return patched;
+			}))
+			.map(InMemoryProductService::copy);
+	}
+
+	@Override
+	public Mono<Product> replaceImage(Product product, String imageId) {
+		product.setImageId(imageId);
+		return save(product);
+	}
+
+	@Override
+	public Mono<Void> delete(Product product) {
+		return Mono.fromRunnable(() -> products.remove(product.getId()));
+	}
+
+	@Override
+	public Mono<Long> deleteById(String id) {
+		return Mono.fromSupplier(() -> products.remove(id) != null ? 1L : 0L);
+	}
+
+	@Override
+	public Mono<Long> deleteAll(ProductDeleteFilterDTO filter) {
+		if (filter.isEmpty()) {
+			return Mono.error(new IllegalArgumentException("The filter must have at least one condition"));
+		}
+		// The same conditions as the query of the DAO, all of them must match
+		return Mono.fromSupplier(() -> products.values().stream()
+				.filter(product -> filter.getIds() == null || filter.getIds().isEmpty() || filter.getIds().contains(product.getId()))
+				.filter(product -> filter.getCategoryId() == null || filter.getCategoryId().equals(product.getCategoryId()))
+				.filter(product -> filter.getCreatedBefore() == null 
+						|| (product.getCreateAt() != null && product.getCreateAt().before(filter.getCreatedBefore())))
+				.filter(product -> products.remove(product.getId(), product))
+				.count());
+	}
+	
+	// The handler modifies the products it receives, like the ones that come from Mongo
+	private static Product copy(Product product) {
+		Product copy = new Product();
+		BeanUtils.copyProperties(product, copy);
+		return copy;
+	}
+}
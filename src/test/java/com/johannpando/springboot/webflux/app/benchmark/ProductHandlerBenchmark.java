@@ -0,0 +1,108 @@
+package com.johannpando.springboot.webflux.app.benchmark;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.handler.ProductHandler;
+import com.johannpando.springboot.webflux.app.service.CatalogChangeFeed;
+import com.johannpando.springboot.webflux.app.service.CatalogVersion;
+import com.johannpando.springboot.webflux.app.service.ProductNameIndex;
+import com.johannpando.springboot.webflux.app.validation.CachedBeanValidator;
+
+import reactor.core.publisher.Mono;
+
+// ProductHandler from the decoded request to the written JSON response, against products kept in memory
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductHandlerBenchmark {
+
+	private static final String PRODUCT_ID = "000001";
+	
+	private ProductHandler handler;
+	
+	private String updateJson;
+	
+	@Setup
+	public void setUp() throws JsonProcessingException {
+		handler = new ProductHandler();
+		ReflectionTestUtils.setField(handler, "productService", new InMemoryProductService(1000));
+		// The same validator as ValidationConfig
+		ReflectionTestUtils.setField(handler, "validator", new CachedBeanValidator(BenchmarkFixtures.validator()));
+		// In memory, their periodic loads and probes are never started
+		ReflectionTestUtils.setField(handler, "productNameIndex", new ProductNameIndex());
+		ReflectionTestUtils.setField(handler, "catalogVersion", new CatalogVersion());
+		ReflectionTestUtils.setField(handler, "catalogChangeFeed", new CatalogChangeFeed());
+		// The image, thumbnail and transfer services need GridFS, none of the benchmarks goes through them
+		// The same values as application.properties
+		ReflectionTestUtils.setField(handler, "defaultLimit", 20);
+		ReflectionTestUtils.setField(handler, "maxLimit", 200);
+		ReflectionTestUtils.setField(handler, "streamPrefetch", 256);
+		ReflectionTestUtils.setField(handler, "typeaheadLimit", 10);
+		ReflectionTestUtils.setField(handler, "imageMaxAge", Duration.ofHours(1));
+		ReflectionTestUtils.setField(handler, "changesBuffer", 256);
+		ReflectionTestUtils.setField(handler, "changesHeartbeat", Duration.ofSeconds(15));
+		ReflectionTestUtils.setField(handler, "bulkBatchSize", 500);
+		ReflectionTestUtils.setField(handler, "bulkConcurrency", 2);
+		ReflectionTestUtils.setField(handler, "maxImportSize", DataSize.ofGigabytes(1));
+		
+		Product update = BenchmarkFixtures.product(PRODUCT_ID);
+		update.setPrice(99.99);
+		updateJson = BenchmarkFixtures.OBJECT_MAPPER.writeValueAsString(update);
+	}
+	
+	@Benchmark
+	public Object getProductById() {
+		return handle(BenchmarkFixtures.exchange(MockServerHttpRequest.get("/api/v2/products/{id}", PRODUCT_ID).build()), 
+				Map.of("id", PRODUCT_ID), handler::getProductById);
+	}
+	
+	@Benchmark
+	public Object listAllProducts() {
+		return handle(BenchmarkFixtures.exchange(MockServerHttpRequest.get("/api/v2/products?limit=20").build()), 
+				Map.of(), handler::listAllProducts);
+	}
+	
+	@Benchmark
+	public Object updatedProduct() {
+		return handle(BenchmarkFixtures.exchange(MockServerHttpRequest.put("/api/v2/products/{id}", PRODUCT_ID)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(updateJson)), Map.of("id", PRODUCT_ID), handler::updatedProduct);
+	}
+	
+	// Invokes the handler and writes its response, the body is consumed so the encoding is measured too
+	private static Object handle(ServerWebExchange exchange, Map<String, String> pathVariables, 
+			Function<ServerRequest, Mono<ServerResponse>> handlerFunction) {
+		ServerRequest request = BenchmarkFixtures.request(exchange, pathVariables);
+		return handlerFunction.apply(request)
+			.flatMap(response -> response.writeTo(exchange, BenchmarkFixtures.RESPONSE_CONTEXT))
+			.then(Mono.defer(() -> ((MockServerHttpResponse) exchange.getResponse()).getBodyAsString()))
+			.block();
+	}
+}
@@ -0,0 +1,66 @@
+package com.johannpando.springboot.webflux.app.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+
+// Jackson cost of the product and of the creation request, with and without the Base64 image
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductJsonBenchmark {
+
+	// Bytes of the image, 0 is a request without image
+	@Param({"0", "16384", "262144"})
+	private int imageSize;
+	
+	private Product product;
+	
+	private ImageProductDTO request;
+	
+	private byte[] requestJson;
+	
+	@Setup
+	public void setUp() throws JsonProcessingException {
+		product = BenchmarkFixtures.product("1");
+		request = new ImageProductDTO();
+		request.setProduct(product);
+		if (imageSize > 0) {
+			request.setImageProduct(BenchmarkFixtures.base64Image(imageSize));
+		}
+		requestJson = BenchmarkFixtures.OBJECT_MAPPER.writeValueAsBytes(request);
+	}
+	
+	@Benchmark
+	public byte[] writeProduct() throws JsonProcessingException {
+		return BenchmarkFixtures.OBJECT_MAPPER.writeValueAsBytes(product);
+	}
+	
+	@Benchmark
+	public byte[] writeImageProduct() throws JsonProcessingException {
+		return BenchmarkFixtures.OBJECT_MAPPER.writeValueAsBytes(request);
+	}
+	
+	// What createProduct does with the body of the request
+	@Benchmark
+	public ImageProductDTO readImageProduct() throws Exception {
+		return BenchmarkFixtures.OBJECT_MAPPER.readValue(requestJson, ImageProductDTO.class);
+	}
+}
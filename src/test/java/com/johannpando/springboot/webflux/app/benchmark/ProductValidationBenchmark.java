@@ -0,0 +1,103 @@
+package com.johannpando.springboot.webflux.app.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.Validator;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+import com.johannpando.springboot.webflux.app.validation.CachedBeanValidator;
+
+// Cost of the validation of the handlers: a BeanPropertyBindingResult and Validator.validate per request (the way
+// it was done before), against the compiled checks of CachedBeanValidator (the way the handlers do it now)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductValidationBenchmark {
+
+	private Validator validator;
+	
+	private CachedBeanValidator cachedValidator;
+	
+	private ImageProductDTO validRequest;
+	
+	private ImageProductDTO invalidRequest;
+	
+	private Product product;
+	
+	@Setup
+	public void setUp() {
+		LocalValidatorFactoryBean defaultValidator = BenchmarkFixtures.validator();
+		validator = defaultValidator;
+		cachedValidator = new CachedBeanValidator(defaultValidator);
+		
+		validRequest = new ImageProductDTO();
+		validRequest.setProduct(BenchmarkFixtures.product("1"));
+		
+		// Without name and without price
+		invalidRequest = new ImageProductDTO();
+		Product invalid = BenchmarkFixtures.product("2");
+		invalid.setName(null);
+		invalid.setPrice(null);
+		invalidRequest.setProduct(invalid);
+		
+		product = BenchmarkFixtures.product("3");
+	}
+	
+	// createProduct with a valid body
+	@Benchmark
+	public Errors validateCreate() {
+		return validate(validRequest, ImageProductDTO.class);
+	}
+	
+	// createProduct with errors, the messages are resolved for each one
+	@Benchmark
+	public Errors validateInvalidCreate() {
+		return validate(invalidRequest, ImageProductDTO.class);
+	}
+	
+	// updatedProduct validates the product itself
+	@Benchmark
+	public Errors validateUpdate() {
+		return validate(product, Product.class);
+	}
+	
+	@Benchmark
+	public List<FieldError> validateCreateCached() {
+		return cachedValidator.fieldErrors(validRequest);
+	}
+	
+	@Benchmark
+	public List<FieldError> validateInvalidCreateCached() {
+		return cachedValidator.fieldErrors(invalidRequest);
+	}
+	
+	@Benchmark
+	public List<FieldError> validateUpdateCached() {
+		return cachedValidator.fieldErrors(product);
+	}
+	
+	private Errors validate(Object target, Class<?> type) {
+		Errors errors = new BeanPropertyBindingResult(target, type.getName());
+		validator.validate(target, errors);
+		return errors;
+	}
+}
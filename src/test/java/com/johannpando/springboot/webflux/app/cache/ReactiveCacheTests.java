@@ -0,0 +1,67 @@
+package com.johannpando.springboot.webflux.app.cache;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.johannpando.springboot.webflux.app.document.Category;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ReactiveCacheTests {
+
+	private final ReactiveCache<Category> cache = new ReactiveCache<>(Caffeine.newBuilder().maximumSize(10).buildAsync(), 
+			category -> {
+				Category copy = new Category(category.getName());
+				copy.setId(category.getId());
+				return copy;
+			});
+	
+	@Test
+	public void concurrentMissesShareTheSameLoad() {
+		AtomicInteger loads = new AtomicInteger();
+		// A slow load, so every subscriber arrives while the first one is still in progress
+		Mono<Category> slowLoad = Mono.fromCallable(() -> {
+			loads.incrementAndGet();
+			Category category = new Category("Computer");
+			category.setId("1");
+			return category;
+		}).delayElement(Duration.ofMillis(100));
+		
+		StepVerifier.create(Flux.range(0, 10).flatMap(i -> cache.get("1", id -> slowLoad)))
+		.expectNextCount(10)
+		.verifyComplete();
+		
+		Assertions.assertThat(loads.get()).isEqualTo(1); // Only one query for the ten readers
+	}
+	
+	@Test
+	public void emptyLoadsAreNotCached() {
+		AtomicInteger loads = new AtomicInteger();
+		Mono<Category> notFound = Mono.fromRunnable(loads::incrementAndGet);
+		
+		StepVerifier.create(cache.get("2", id -> notFound)).verifyComplete();
+		StepVerifier.create(cache.get("2", id -> notFound)).verifyComplete();
+		
+		Assertions.assertThat(loads.get()).isEqualTo(2); // A missing document is asked again
+	}
+	
+	@Test
+	public void readersReceiveCopies() {
+		Category category = new Category("Others");
+		category.setId("3");
+		cache.put("3", category);
+		
+		// The reader modifies its instance, the cached entry stays untouched
+		cache.get("3", id -> Mono.empty()).block().setName("Modified");
+		
+		StepVerifier.create(cache.get("3", id -> Mono.empty()))
+		.assertNext(c -> Assertions.assertThat(c.getName()).isEqualTo("Others"))
+		.verifyComplete();
+	}
+}
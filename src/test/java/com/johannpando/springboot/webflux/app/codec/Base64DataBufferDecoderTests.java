@@ -0,0 +1,69 @@
+package com.johannpando.springboot.webflux.app.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class Base64DataBufferDecoderTests {
+
+	@Test
+	public void decodesChunksSplitAnywhere() {
+		for (int size : new int[] {1, 2, 3, 1000, 65537}) {
+			byte[] image = new byte[size];
+			new Random(size).nextBytes(image);
+			// MIME encoding, with line breaks in the middle of the body
+			String base64 = Base64.getMimeEncoder().encodeToString(image);
+			
+			// Chunks of 7 characters, so the quartets are split between chunks
+			StepVerifier.create(DataBufferUtils.join(Base64DataBufferDecoder.decode(chunks(base64, 7), Long.MAX_VALUE)))
+			.assertNext(decoded -> {
+				byte[] bytes = new byte[decoded.readableByteCount()];
+				decoded.read(bytes);
+				Assertions.assertThat(bytes).isEqualTo(image);
+			})
+			.verifyComplete();
+		}
+	}
+	
+	@Test
+	public void decodesWithoutPadding() {
+		String base64 = Base64.getEncoder().withoutPadding().encodeToString("ab".getBytes(StandardCharsets.US_ASCII));
+		
+		StepVerifier.create(DataBufferUtils.join(Base64DataBufferDecoder.decode(chunks(base64, 1), Long.MAX_VALUE)))
+		.assertNext(decoded -> Assertions.assertThat(decoded.toString(StandardCharsets.US_ASCII)).isEqualTo("ab"))
+		.verifyComplete();
+	}
+	
+	@Test
+	public void stopsAtTheMaximumSize() {
+		String base64 = Base64.getEncoder().encodeToString(new byte[1024]);
+		
+		// The body is not read after the limit
+		StepVerifier.create(Base64DataBufferDecoder.decode(chunks(base64, 100), 100))
+		.expectNextCount(1)
+		.verifyError(DataBufferLimitException.class);
+	}
+	
+	@Test
+	public void rejectsInvalidCharacters() {
+		StepVerifier.create(Base64DataBufferDecoder.decode(chunks("AAAA*AAA", 4), Long.MAX_VALUE))
+		.expectNextCount(1)
+		.verifyError(IllegalArgumentException.class);
+	}
+	
+	private static Flux<DataBuffer> chunks(String base64, int chunkSize) {
+		return Flux.range(0, (base64.length() + chunkSize - 1) / chunkSize)
+			.map(i -> base64.substring(i * chunkSize, Math.min(base64.length(), (i + 1) * chunkSize)))
+			.map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.US_ASCII)));
+	}
+}
@@ -0,0 +1,124 @@
+package com.johannpando.springboot.webflux.app.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class GzipDataBuffersTests {
+
+	@Test
+	public void compressedStreamsAreReadByGunzip() throws IOException {
+		byte[] content = ndjson(20_000);
+		
+		byte[] compressed = join(GzipDataBuffers.compress(chunks(content, 1000), DefaultDataBufferFactory.sharedInstance));
+		
+		Assertions.assertThat(compressed.length).isLessThan(content.length / 4);
+		try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			Assertions.assertThat(gunzip.readAllBytes()).isEqualTo(content);
+		}
+	}
+	
+	@Test
+	public void decompressesChunksSplitAnywhere() throws IOException {
+		byte[] content = ndjson(5_000);
+		// Two members, like two files joined with cat, and a header with a file name
+		byte[] compressed = concat(gzip(Arrays.copyOf(content, 1000), true), gzip(Arrays.copyOfRange(content, 1000, content.length), false));
+		
+		for (int chunkSize : new int[] {1, 7, 4096}) {
+			Assertions.assertThat(join(GzipDataBuffers.decompress(chunks(compressed, chunkSize), Long.MAX_VALUE))).isEqualTo(content);
+		}
+	}
+	
+	@Test
+	public void truncatedOrCorruptedStreamsAreRejected() throws IOException {
+		byte[] compressed = gzip(ndjson(1_000), false);
+		
+		StepVerifier.create(GzipDataBuffers.decompress(chunks(Arrays.copyOf(compressed, compressed.length - 3), 100), Long.MAX_VALUE))
+		.thenConsumeWhile(buffer -> DataBufferUtils.release(buffer) || true)
+		.verifyErrorMessage("The gzip stream is truncated");
+		
+		compressed[compressed.length - 5] ^= 1;
+		StepVerifier.create(GzipDataBuffers.decompress(chunks(compressed, 100), Long.MAX_VALUE))
+		.thenConsumeWhile(buffer -> DataBufferUtils.release(buffer) || true)
+		.verifyErrorMessage("The gzip stream is corrupted: wrong checksum or size");
+		
+		StepVerifier.create(GzipDataBuffers.decompress(chunks("{\"name\":\"IPhone 5\"}".getBytes(), 100), Long.MAX_VALUE))
+		.verifyErrorMessage("The content is not gzip");
+	}
+	
+	@Test
+	public void decompressedSizeIsLimited() throws IOException {
+		// 64 MB of zeros fit in a single small buffer
+		byte[] compressed = gzip(new byte[64 * 1024 * 1024], false);
+		Assertions.assertThat(compressed.length).isLessThan(100 * 1024);
+		
+		AtomicLong decompressed = new AtomicLong();
+		StepVerifier.create(GzipDataBuffers.decompress(chunks(compressed, compressed.length), 1024 * 1024))
+		.thenConsumeWhile(buffer -> {
+			decompressed.addAndGet(buffer.readableByteCount());
+			return DataBufferUtils.release(buffer) || true;
+		})
+		.verifyError(DataBufferLimitException.class);
+		
+		// Inflated on demand, it stops at the limit instead of expanding the whole buffer
+		Assertions.assertThat(decompressed.get()).isLessThanOrEqualTo(1024 * 1024);
+	}
+	
+	private static byte[] ndjson(int lines) {
+		Random random = new Random(lines);
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			ndjson.append("{\"product\":{\"name\":\"Product ").append(i).append("\",\"price\":").append(random.nextInt(1000)).append("}}\n");
+		}
+		return ndjson.toString().getBytes();
+	}
+	
+	private static byte[] gzip(byte[] content, boolean withName) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(content);
+		}
+		byte[] compressed = out.toByteArray();
+		if (!withName) {
+			return compressed;
+		}
+		// FNAME flag and a zero-terminated name after the fixed header
+		byte[] name = "catalog.ndjson\0".getBytes();
+		byte[] named = concat(Arrays.copyOf(compressed, 10), concat(name, Arrays.copyOfRange(compressed, 10, compressed.length)));
+		named[3] |= 8;
+		return named;
+	}
+	
+	private static Flux<DataBuffer> chunks(byte[] content, int size) {
+		return Flux.range(0, (content.length + size - 1) / size)
+			.map(i -> DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(content, i * size, Math.min(content.length, (i + 1) * size))));
+	}
+	
+	private static byte[] join(Flux<DataBuffer> buffers) {
+		DataBuffer joined = DataBufferUtils.join(buffers).block();
+		byte[] bytes = new byte[joined.readableByteCount()];
+		joined.read(bytes);
+		return bytes;
+	}
+	
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] joined = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, joined, first.length, second.length);
+		return joined;
+	}
+}
@@ -0,0 +1,88 @@
+package com.johannpando.springboot.webflux.app.dao;
+
+import java.util.Date;
+
+import org.assertj.core.api.Assertions;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.johannpando.springboot.webflux.app.dto.ProductSearchDTO;
+
+import reactor.core.publisher.Mono;
+
+// Every filter of the search must be resolved with an index (IXSCAN), never reading the whole collection (COLLSCAN).
+// Explained by a real MongoDB, so it only runs with the loadtest profile, against the embedded one: mvn -P loadtest test
+@Tag("mongo")
+@SpringBootTest(properties = {
+		"de.flapdoodle.mongodb.embedded.version=7.0.12",
+		"eureka.client.enabled=false"
+})
+class ProductSearchQueryTests {
+
+	@Autowired
+	private ReactiveMongoTemplate reactiveMongoTemplate;
+	
+	@Autowired
+	private ProductIndexes productIndexes;
+	
+	@BeforeEach
+	public void createIndexes() {
+		productIndexes.ensureIndexes().block();
+	}
+	
+	@Test
+	public void searchByCategoryAndPriceUsesIndex() {
+		ProductSearchDTO search = search();
+		search.setCategoryId("66993a7a7f0c55287187f600");
+		search.setMinPrice(100.0);
+		search.setMaxPrice(600.0);
+		search.setSort("price");
+		
+		assertIndexScan(search);
+	}
+	
+	@Test
+	public void searchByNamePrefixUsesIndex() {
+		ProductSearchDTO search = search();
+		search.setName("IPhone (");
+		
+		assertIndexScan(search);
+	}
+	
+	@Test
+	public void searchByCreationDateUsesIndex() {
+		ProductSearchDTO search = search();
+		search.setCreatedFrom(new Date(0));
+		search.setCreatedTo(new Date());
+		search.setSort("createAt");
+		
+		assertIndexScan(search);
+	}
+	
+	private static ProductSearchDTO search() {
+		ProductSearchDTO search = new ProductSearchDTO();
+		search.setLimit(20);
+		return search;
+	}
+	
+	private void assertIndexScan(ProductSearchDTO search) {
+		Query query = ProductSearchQuery.of(search);
+		
+		// The same query that the DAO sends, explained by Mongo instead of executed
+		Document explain = reactiveMongoTemplate.getCollection("products")
+			.flatMap(collection -> Mono.from(collection.find(query.getQueryObject())
+					.sort(query.getSortObject())
+					.limit(query.getLimit())
+					.explain()))
+			.block();
+		
+		String winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+		Assertions.assertThat(winningPlan).contains("IXSCAN").doesNotContain("COLLSCAN");
+	}
+}
@@ -0,0 +1,72 @@
+package com.johannpando.springboot.webflux.app.loadtest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+// Latencies of one run, per operation, in HdrHistogram so the high percentiles are exact
+class LatencyReport {
+
+	// Up to one minute with 3 significant digits
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+	
+	private final String name;
+	
+	private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+	
+	private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+	
+	// Requests that were not sent because the limit of requests in flight was reached
+	private final LongAdder dropped = new LongAdder();
+	
+	LatencyReport(String name) {
+		this.name = name;
+	}
+	
+	void record(String operation, long latencyNanos) {
+		histograms.computeIfAbsent(operation, op -> new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3))
+			.recordValue(Math.min(latencyNanos, HIGHEST_TRACKABLE_NANOS));
+	}
+	
+	void error(String operation) {
+		errors.computeIfAbsent(operation, op -> new LongAdder()).increment();
+	}
+	
+	void dropped() {
+		dropped.increment();
+	}
+	
+	long completed() {
+		return histograms.values().stream().mapToLong(Histogram::getTotalCount).sum();
+	}
+	
+	long errors() {
+		return errors.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+	
+	String format(Duration duration) {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%n== %s: %.1f req/s, %d completed, %d errors, %d dropped%n", 
+				name, completed() / (duration.toNanos() / 1e9), completed(), errors(), dropped.sum()));
+		report.append(String.format("%-8s %9s %9s %9s %9s %9s %9s %7s%n", "op", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors"));
+		histograms.entrySet().stream()
+			.sorted(Map.Entry.comparingByKey())
+			.forEach(entry -> {
+				Histogram histogram = entry.getValue();
+				report.append(String.format("%-8s %9d %9.2f %9.2f %9.2f %9.2f %9.2f %7d%n", entry.getKey(), histogram.getTotalCount(),
+						millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)), 
+						millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)), 
+						millis(histogram.getMaxValue()), errors.getOrDefault(entry.getKey(), new LongAdder()).sum()));
+			});
+		return report.toString();
+	}
+	
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+}
@@ -0,0 +1,85 @@
+package com.johannpando.springboot.webflux.app.loadtest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Sends the requests at a fixed rate whatever the server answers (open loop), a slow server does not slow down the load.
+// The latency is measured from the moment the request should have been sent, so the queueing is not hidden
+// (coordinated omission)
+class OpenLoopGenerator {
+
+	private final int ratePerSecond;
+	
+	private final int maxInFlight;
+	
+	// Cumulative weight -> operation, the operation of each request is drawn with its weight
+	private final NavigableMap<Integer, String> mix = new TreeMap<>();
+	
+	private final int totalWeight;
+	
+	OpenLoopGenerator(int ratePerSecond, int maxInFlight, Map<String, Integer> weights) {
+		this.ratePerSecond = ratePerSecond;
+		this.maxInFlight = maxInFlight;
+		int total = 0;
+		for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+			if (weight.getValue() > 0) {
+				total += weight.getValue();
+				mix.put(total, weight.getKey());
+			}
+		}
+		this.totalWeight = total;
+	}
+	
+	// "list:40,get:40,create:10,update:5,delete:5"
+	static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new TreeMap<>();
+		for (String entry : mix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			weights.put(parts[0], Integer.valueOf(parts[1]));
+		}
+		return weights;
+	}
+	
+	// Runs the operations for the duration and records their latency in the report,
+	// the results of the warm-up are thrown away
+	Mono<LatencyReport> run(String name, Duration warmup, Duration duration, Map<String, Supplier<Mono<?>>> operations) {
+		return Mono.defer(() -> drive(new LatencyReport(name + " (warm-up)"), warmup, operations))
+			.then(Mono.defer(() -> drive(new LatencyReport(name), duration, operations)));
+	}
+	
+	private Mono<LatencyReport> drive(LatencyReport report, Duration duration, Map<String, Supplier<Mono<?>>> operations) {
+		long periodNanos = 1_000_000_000L / ratePerSecond;
+		long requests = duration.toNanos() / periodNanos;
+		AtomicInteger inFlight = new AtomicInteger();
+		long start = System.nanoTime();
+		
+		return Flux.interval(Duration.ofNanos(periodNanos))
+			.take(requests)
+			// The ticks are never late because of the responses
+			.onBackpressureBuffer()
+			.flatMap(tick -> {
+				long intended = start + (tick + 1) * periodNanos;
+				if (inFlight.incrementAndGet() > maxInFlight) {
+					// The client itself is saturated, we count it instead of queueing without limit
+					inFlight.decrementAndGet();
+					report.dropped();
+					return Mono.empty();
+				}
+				String operation = mix.higherEntry(ThreadLocalRandom.current().nextInt(totalWeight)).getValue();
+				return operations.get(operation).get()
+					.doOnSuccess(result -> report.record(operation, System.nanoTime() - intended))
+					.doOnError(e -> report.error(operation))
+					.onErrorResume(e -> Mono.empty())
+					.doFinally(signal -> inFlight.decrementAndGet());
+			}, Integer.MAX_VALUE)
+			.then(Mono.just(report));
+	}
+}
@@ -0,0 +1,146 @@
+package com.johannpando.springboot.webflux.app.loadtest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+import com.johannpando.springboot.webflux.app.seed.CatalogSeeder;
+import com.johannpando.springboot.webflux.app.service.ICategoryService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Same load against the annotated controller (/api/products) and the functional routes (/api/v2/products).
+// Only runs with the loadtest profile, against an embedded MongoDB:
+// mvn -P loadtest test -Dloadtest.rate=500 -Dloadtest.duration=60s -Dloadtest.mix=list:40,get:40,create:10,update:5,delete:5
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"de.flapdoodle.mongodb.embedded.version=7.0.12",
+		"eureka.client.enabled=false",
+		// The load is the same for every client, it measures the stacks and not the rate or concurrency limits
+		"app.ratelimit.enabled=false",
+		"app.resilience.concurrency.enabled=false"
+})
+class ProductApiLoadTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ProductApiLoadTest.class);
+	
+	// Products created before the load, the reads and updates choose one of them
+	private static final int PRODUCTS = 1000;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private ICategoryService categoryService;
+	
+	@Autowired
+	private CatalogSeeder catalogSeeder;
+	
+	@Value("${loadtest.rate:200}")
+	private int rate;
+	
+	@Value("${loadtest.max-in-flight:1024}")
+	private int maxInFlight;
+	
+	@Value("${loadtest.warmup:10s}")
+	private Duration warmup;
+	
+	@Value("${loadtest.duration:30s}")
+	private Duration duration;
+	
+	@Value("${loadtest.mix:list:40,get:40,create:10,update:5,delete:5}")
+	private String mix;
+	
+	private WebClient client;
+	
+	private Category category;
+	
+	@BeforeEach
+	public void setUp() {
+		// Every run starts from the same catalog, a bigger one with -Dapp.seed.products=file:/path/products.ndjson
+		catalogSeeder.completion().block(Duration.ofMinutes(10));
+		client = WebClient.builder().baseUrl("http://localhost:" + port).build();
+		category = categoryService.save(new Category("Load test")).block();
+	}
+	
+	@Test
+	public void controllerStack() {
+		run("/api/products");
+	}
+	
+	@Test
+	public void functionalStack() {
+		run("/api/v2/products");
+	}
+	
+	private void run(String basePath) {
+		// The products read and updated by the load
+		List<String> ids = new CopyOnWriteArrayList<>(Flux.range(0, PRODUCTS)
+				.flatMap(i -> create(basePath), 32)
+				.collectList()
+				.block());
+		// The products created by the load are the ones deleted by it
+		ConcurrentLinkedQueue<String> created = new ConcurrentLinkedQueue<>();
+		
+		Map<String, Supplier<Mono<?>>> operations = Map.of(
+				"list", () -> client.get().uri(basePath + "?limit=20").retrieve().toBodilessEntity(),
+				"get", () -> client.get().uri(basePath + "/{id}", randomId(ids)).retrieve().toBodilessEntity(),
+				"create", () -> create(basePath).doOnNext(created::add),
+				"update", () -> client.put().uri(basePath + "/{id}", randomId(ids))
+						.contentType(MediaType.APPLICATION_JSON)
+						.bodyValue(product())
+						.retrieve()
+						.toBodilessEntity(),
+				"delete", () -> {
+					String id = created.poll();
+					// Nothing to delete yet, the request is still measured as a delete of a missing product
+					return client.delete().uri(basePath + "/{id}", id != null ? id : "missing")
+							.exchangeToMono(response -> response.releaseBody());
+				});
+		
+		OpenLoopGenerator generator = new OpenLoopGenerator(rate, maxInFlight, OpenLoopGenerator.parseMix(mix));
+		LatencyReport report = generator.run(basePath, warmup, duration, operations).block();
+		
+		log.info("{} req/s offered, mix {}{}", rate, mix, report.format(duration));
+		Assertions.assertThat(report.completed()).isPositive();
+	}
+	
+	private Mono<String> create(String basePath) {
+		ImageProductDTO dto = new ImageProductDTO();
+		dto.setProduct(product());
+		return client.post().uri(basePath)
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(dto)
+				.retrieve()
+				.bodyToMono(Product.class)
+				.map(Product::getId);
+	}
+	
+	private Product product() {
+		return new Product("Load test " + ThreadLocalRandom.current().nextInt(1_000_000), 
+				ThreadLocalRandom.current().nextDouble(1, 1000), category);
+	}
+	
+	private static String randomId(List<String> ids) {
+		return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+	}
+}
@@ -0,0 +1,72 @@
+package com.johannpando.springboot.webflux.app.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTests {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	@Test
+	public void theBurstIsAcceptedAndThenTheRate() {
+		TokenBucket bucket = new TokenBucket(10, 5, 0);
+		
+		// A full bucket accepts the burst at once
+		for (int i = 0; i < 5; i++) {
+			Assertions.assertThat(bucket.tryAcquire(0)).isZero();
+		}
+		// The next token comes back after 1/10 of a second
+		Assertions.assertThat(bucket.tryAcquire(0)).isEqualTo(SECOND / 10);
+		Assertions.assertThat(bucket.tryAcquire(SECOND / 10)).isZero();
+		Assertions.assertThat(bucket.tryAcquire(SECOND / 10)).isPositive();
+		
+		// After a quiet period the bucket is full again, never fuller
+		Assertions.assertThat(bucket.isIdleSince(10 * SECOND)).isTrue();
+		long accepted = IntStream.range(0, 10).filter(i -> bucket.tryAcquire(10 * SECOND) == 0).count();
+		Assertions.assertThat(accepted).isEqualTo(5);
+	}
+	
+	@Test
+	public void concurrentClientsNeverTakeMoreThanTheBurst() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1, 100, 0);
+		AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					if (bucket.tryAcquire(0) == 0) {
+						accepted.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assertions.assertThat(accepted.get()).isEqualTo(100);
+	}
+	
+	@Test
+	public void idleClientsAreEvicted() {
+		RateLimitProperties.Limit limit = new RateLimitProperties.Limit();
+		limit.setPermitsPerSecond(10);
+		limit.setBurst(1);
+		limit.setMaxConcurrent(1);
+		RateLimiterRegistry registry = new RateLimiterRegistry(4);
+		
+		ClientLimiter busy = registry.get("busy", key -> new ClientLimiter(limit, 0));
+		registry.get("quiet", key -> new ClientLimiter(limit, 0)).tryAcquire(0);
+		Assertions.assertThat(busy.tryEnter()).isTrue();
+		Assertions.assertThat(busy.tryEnter()).isFalse(); // Only one request in progress
+		
+		// The client with a request in progress is kept
+		Assertions.assertThat(registry.evictIdle(60 * SECOND, SECOND)).isEqualTo(1);
+		Assertions.assertThat(registry.size()).isEqualTo(1);
+		Assertions.assertThat(registry.get("busy", key -> new ClientLimiter(limit, 0))).isSameAs(busy);
+	}
+}
@@ -0,0 +1,48 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTests {
+
+	private static final long THRESHOLD = TimeUnit.MILLISECONDS.toNanos(500);
+	
+	@Test
+	public void theRequestsOverTheLimitAreRejected() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 0.5, THRESHOLD);
+		
+		Assertions.assertThat(limiter.tryAcquire()).isTrue();
+		Assertions.assertThat(limiter.tryAcquire()).isTrue();
+		Assertions.assertThat(limiter.tryAcquire()).isFalse();
+		Assertions.assertThat(limiter.getInFlight()).isEqualTo(2);
+	}
+	
+	@Test
+	public void theLimitFallsWithSlowRequestsAndGrowsWithFastOnes() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 2, 10, 0.5, THRESHOLD);
+		
+		// Slow, the limit is halved down to the minimum
+		for (int i = 0; i < 4; i++) {
+			limiter.tryAcquire();
+			limiter.release(2 * THRESHOLD, false);
+		}
+		Assertions.assertThat(limiter.getLimit()).isEqualTo(2);
+		
+		// Fast and using the limit, it grows again by one every "limit" requests
+		for (int i = 0; i < 20; i++) {
+			limiter.tryAcquire();
+			limiter.tryAcquire();
+			limiter.release(THRESHOLD / 10, false);
+			limiter.release(THRESHOLD / 10, false);
+		}
+		Assertions.assertThat(limiter.getLimit()).isGreaterThan(2).isLessThanOrEqualTo(10);
+		
+		// A failure of Mongo counts as a slow request
+		int before = limiter.getLimit();
+		limiter.tryAcquire();
+		limiter.release(0, true);
+		Assertions.assertThat(limiter.getLimit()).isLessThan(before);
+	}
+}
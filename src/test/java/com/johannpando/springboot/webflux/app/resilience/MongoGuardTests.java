@@ -0,0 +1,101 @@
+package com.johannpando.springboot.webflux.app.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class MongoGuardTests {
+
+	private final MongoGuard guard = new MongoGuard();
+	
+	private CircuitBreaker circuitBreaker;
+	
+	@BeforeEach
+	public void setUp() {
+		ResilienceProperties properties = new ResilienceProperties();
+		properties.setDefaultTimeout(Duration.ofMillis(100));
+		properties.getRetry().setMinBackoff(Duration.ofMillis(1));
+		properties.getRetry().setMaxBackoff(Duration.ofMillis(5));
+		circuitBreaker = CircuitBreaker.of("mongo", CircuitBreakerConfig.custom()
+				.slidingWindowSize(4)
+				.minimumNumberOfCalls(4)
+				.recordException(MongoFailures::isTransient)
+				.build());
+		ReflectionTestUtils.setField(guard, "properties", properties);
+		ReflectionTestUtils.setField(guard, "mongoCircuitBreaker", circuitBreaker);
+	}
+	
+	@Test
+	public void theReadsAreRetriedAfterATransientFailure() {
+		AtomicInteger calls = new AtomicInteger();
+		Mono<String> read = Mono.defer(() -> calls.incrementAndGet() == 1 
+				? Mono.error(new DataAccessResourceFailureException("connection reset")) : Mono.just("product"));
+		
+		StepVerifier.create(read.transform(guard.readMono("product.findById")))
+		.expectNext("product")
+		.verifyComplete();
+		Assertions.assertThat(calls.get()).isEqualTo(2);
+	}
+	
+	@Test
+	public void theWritesAndTheAnswersOfMongoAreNotRetried() {
+		AtomicInteger calls = new AtomicInteger();
+		Mono<String> write = Mono.defer(() -> {
+			calls.incrementAndGet();
+			return Mono.error(new DataAccessResourceFailureException("connection reset"));
+		});
+		StepVerifier.create(write.transform(guard.writeMono("product.save")))
+		.verifyError(DataAccessResourceFailureException.class);
+		Assertions.assertThat(calls.get()).isEqualTo(1);
+		
+		Mono<String> duplicate = Mono.defer(() -> {
+			calls.incrementAndGet();
+			return Mono.error(new DuplicateKeyException("duplicate"));
+		});
+		StepVerifier.create(duplicate.transform(guard.readMono("product.findById")))
+		.verifyError(DuplicateKeyException.class);
+		Assertions.assertThat(calls.get()).isEqualTo(2);
+	}
+	
+	@Test
+	public void aFluxIsNotRetriedOnceItHasStarted() {
+		AtomicInteger calls = new AtomicInteger();
+		Flux<Integer> read = Flux.defer(() -> {
+			calls.incrementAndGet();
+			return Flux.just(1).concatWith(Flux.error(new DataAccessResourceFailureException("connection reset")));
+		});
+		
+		StepVerifier.create(read.transform(guard.readFlux("product.findAll")))
+		.expectNext(1)
+		.verifyError(DataAccessResourceFailureException.class);
+		Assertions.assertThat(calls.get()).isEqualTo(1);
+	}
+	
+	@Test
+	public void theCircuitOpensWithTheTimeouts() {
+		Mono<String> slow = Mono.<String>never();
+		for (int i = 0; i < 4; i++) {
+			StepVerifier.create(slow.transform(guard.writeMono("product.save")))
+			.verifyError(TimeoutException.class);
+		}
+		Assertions.assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		
+		// Mongo is not called while the circuit is open
+		StepVerifier.create(Mono.just("product").transform(guard.readMono("product.findById")))
+		.verifyError(CallNotPermittedException.class);
+	}
+}
@@ -0,0 +1,106 @@
+package com.johannpando.springboot.webflux.app.validation;
+
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import com.johannpando.springboot.webflux.app.document.Category;
+import com.johannpando.springboot.webflux.app.document.Product;
+import com.johannpando.springboot.webflux.app.dto.ImageProductDTO;
+
+class CachedBeanValidatorTests {
+	
+	private static LocalValidatorFactoryBean delegate;
+	
+	private static CachedBeanValidator validator;
+	
+	@BeforeAll
+	public static void setUp() {
+		delegate = new LocalValidatorFactoryBean();
+		delegate.afterPropertiesSet();
+		validator = new CachedBeanValidator(delegate);
+	}
+	
+	@AfterAll
+	public static void tearDown() {
+		delegate.destroy();
+	}
+	
+	@Test
+	public void validObjectsHaveNoErrors() {
+		Product product = product();
+		ImageProductDTO dto = new ImageProductDTO();
+		dto.setProduct(product);
+		
+		Assertions.assertThat(validator.isValid(product)).isTrue();
+		Assertions.assertThat(validator.isValid(dto)).isTrue();
+		Assertions.assertThat(validator.fieldErrors(dto)).isEmpty();
+		Assertions.assertThat(validator.fieldErrors(product.getCategory())).isEmpty();
+	}
+	
+	@Test
+	public void sameErrorsAsTheDefaultValidator() {
+		Product withoutNameAndPrice = product();
+		withoutNameAndPrice.setName(null);
+		withoutNameAndPrice.setPrice(null);
+		
+		Product withoutCategory = product();
+		withoutCategory.setCategory(null);
+		
+		// The error is in the nested category
+		Product withoutCategoryName = product();
+		withoutCategoryName.getCategory().setName(null);
+		
+		ImageProductDTO withoutProduct = new ImageProductDTO();
+		
+		ImageProductDTO withInvalidProduct = new ImageProductDTO();
+		withInvalidProduct.setProduct(withoutCategoryName);
+		
+		for (Object target : List.of(withoutNameAndPrice, withoutCategory, withoutCategoryName, withoutProduct, withInvalidProduct)) {
+			Assertions.assertThat(validator.isValid(target)).isFalse();
+			Assertions.assertThat(describe(validator.fieldErrors(target)))
+				.containsExactlyInAnyOrderElementsOf(describe(defaultErrors(target)));
+		}
+	}
+	
+	@Test
+	public void validateFillsTheErrorsOnlyWhenInvalid() {
+		Product valid = product();
+		Errors errors = new BeanPropertyBindingResult(valid, Product.class.getName());
+		validator.validate(valid, errors);
+		Assertions.assertThat(errors.hasErrors()).isFalse();
+		
+		Product invalid = product();
+		invalid.setName(null);
+		errors = new BeanPropertyBindingResult(invalid, Product.class.getName());
+		validator.validate(invalid, errors);
+		Assertions.assertThat(errors.getFieldErrors()).extracting(FieldError::getField).containsExactly("name");
+	}
+	
+	private static List<FieldError> defaultErrors(Object target) {
+		Errors errors = new BeanPropertyBindingResult(target, target.getClass().getName());
+		delegate.validate(target, errors);
+		return errors.getFieldErrors();
+	}
+	
+	private static List<String> describe(List<FieldError> errors) {
+		return errors.stream()
+				.map(error -> error.getObjectName() + " " + error.getField() + " " + error.getDefaultMessage())
+				.toList();
+	}
+	
+	private static Product product() {
+		Category category = new Category("Mobile Phone");
+		category.setId("c1");
+		Product product = new Product("IPhone", 450.89, category);
+		product.setId("1");
+		return product;
+	}
+}